@@ -0,0 +1,122 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts roughly how many bytes the Lox code in one isolate allocates, split up by what kind of
+ * thing got allocated, and optionally stops a run that allocates more than a limit.
+ *
+ * The sizes are estimates of what the java objects behind each Lox value take on a 64 bit JVM,
+ * not exact measurements. They also only ever go up: the garbage collector freeing something
+ * doesn't give its bytes back, so the limit caps how much a run allocates in total, which is
+ * also an upper bound on how much of the heap it can be holding on to.
+ *
+ * Like ExecutionBudget, interpreters check the limit in chunks (see Interpreter.allocate),
+ * so going over is noticed within a chunk's worth of bytes per thread. A chunk is never more
+ * than an eighth of what's left under the limit, and forks give back what they didn't use when
+ * they finish (see Interpreter.finishFork), so credit handed out to lots of fibers or parallel
+ * workers doesn't count against the script as if it had been allocated.
+ */
+class AllocationTracker {
+    enum Kind {
+        INSTANCE, FIELD, STRING, FRAME, VARIABLE, FUNCTION, COLLECTION
+    }
+
+    // LoxInstance plus its empty field map
+    static final int INSTANCE_BYTES = 72;
+    // a HashMap entry, for a field or a variable
+    static final int ENTRY_BYTES = 40;
+    // Environment plus its empty map
+    static final int FRAME_BYTES = 72;
+    static final int FUNCTION_BYTES = 24;
+    // LoxString plus the java String (with its array header) behind it
+    static final int STRING_BYTES = 48;
+    // a rope node from LoxString.concat, which doesn't copy any characters
+    static final int ROPE_BYTES = 32;
+    // a new List() or Map() with its starting arrays
+    static final int LIST_BYTES = 104;
+    static final int MAP_BYTES = 320;
+    // one more element in a list or key in a map (including the room they leave free for growing)
+    static final int LIST_ELEMENT_BYTES = 8;
+    static final int MAP_ENTRY_BYTES = 40;
+
+    // how many bytes an interpreter can allocate before it checks the limit again, at most
+    private static final long MAX_CHUNK = 64 * 1024;
+
+    // 0 means count, but never stop the script
+    private final long limit;
+    private final long chunk;
+
+    private final LongAdder[] bytes = new LongAdder[Kind.values().length];
+    private final LongAdder[] counts = new LongAdder[Kind.values().length];
+
+    // bytes interpreters have used (or taken as credit to use) in this run
+    private final AtomicLong reserved = new AtomicLong();
+
+    AllocationTracker(long limit) {
+        this.limit = limit;
+        // small limits get small chunks, or a whole chunk could go by before anyone checks
+        chunk = Math.max(1, Math.min(MAX_CHUNK, limit / 16));
+        for (int k = 0; k < bytes.length; k++) {
+            bytes[k] = new LongAdder();
+            counts[k] = new LongAdder();
+        }
+    }
+
+    // the limit is per run, the totals for the report keep going across runs
+    void startRun() {
+        reserved.set(0);
+    }
+
+    void record(Kind kind, long size) {
+        bytes[kind.ordinal()].add(size);
+        counts[kind.ordinal()].increment();
+    }
+
+    // an interpreter has used needed bytes more than its credit. This counts them and returns
+    // enough credit to cover them plus a fresh chunk, or throws if the run is over its limit
+    long reserve(long needed, Token where) {
+        if (limit == 0) return Long.MAX_VALUE / 4;
+
+        while (true) {
+            long before = reserved.get();
+            long used = before + needed;
+            if (used > limit) {
+                String message = "Script went over its allocation limit of " + limit + " bytes";
+                // natives and class calls don't have a token, Interpreter.invoke blames the call for them
+                if (where == null) throw new NativeFunction.NativeError(message);
+                throw new RuntimeError(where, message);
+            }
+            long credit = Math.min(chunk, (limit - used) / 8);
+            if (reserved.compareAndSet(before, used + credit)) return needed + credit;
+        }
+    }
+
+    // credit someone got from reserve() but never used
+    void release(long credit) {
+        if (limit != 0 && credit > 0) reserved.addAndGet(-credit);
+    }
+
+    // a table of everything allocated so far, biggest first
+    String report() {
+        StringBuilder sb = new StringBuilder();
+        long totalBytes = 0;
+        long totalCount = 0;
+
+        Kind[] kinds = Kind.values().clone();
+        Arrays.sort(kinds, (a, b) -> Long.compare(bytes[b.ordinal()].sum(), bytes[a.ordinal()].sum()));
+
+        sb.append(String.format("%-12s %12s %14s%n", "kind", "count", "bytes"));
+        for (Kind kind : kinds) {
+            long b = bytes[kind.ordinal()].sum();
+            long c = counts[kind.ordinal()].sum();
+            totalBytes += b;
+            totalCount += c;
+            sb.append(String.format("%-12s %12d %14d%n", kind.name().toLowerCase(), c, b));
+        }
+        sb.append(String.format("%-12s %12d %14d%n", "total", totalCount, totalBytes));
+        return sb.toString();
+    }
+}
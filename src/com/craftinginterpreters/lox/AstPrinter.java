@@ -4,6 +4,9 @@
 
 package com.craftinginterpreters.lox;
 
+import java.math.BigDecimal;
+import java.util.List;
+
 // so to explain this in my own terms, let's say we call AstPrinter.print(e);
 // where e is of type Expression. Then this will call exp.accept(this)
 // where this is of type Visitor<String>, (passed in via the "this" in the print() function below
@@ -20,54 +23,311 @@ package com.craftinginterpreters.lox;
 // Expression, who passes back one of Expression.Binary, Grouping, Literal, or Unary
 // back to the visit functions so we know what to print. Phew.
 
+// the output is Lox source, which is how LoxGenerator turns the trees it makes up into programs.
+// Parentheses only go in where precedence needs them, so printing what the parser made of
+// a printed program gives back the same source.
+// Statements are printed one per line into a StringBuilder instead of being returned as
+// Strings, so printing a deeply nested program doesn't copy every block once per level
+
 // the abstract syntax tree printer will implement the interface 
-public class AstPrinter implements Expression.Visitor<String> {
+public class AstPrinter implements Expression.Visitor<String>, Statement.Visitor<Void> {
+    private final StringBuilder out = new StringBuilder();
+    private int indent = 0;
+
     String print(Expression exp) {
         return exp.accept(this); // this calls the visit functions below and returns a String
     }
 
-    // the following four methods implement the Visitor<R> interface which is inherited
+    String print(List<Statement> program) {
+        out.setLength(0);
+        for (Statement s : program) {
+            s.accept(this);
+        }
+        return out.toString();
+    }
+
+    // the following methods implement the Visitor<R> interface which is inherited
     // They help print out the syntax tree nicely in String format
     // notice that they access the member variables for each of our Expression productions
     @Override
     public String visitBinaryExpression(Expression.Binary expression) {
-        return parenthesize(expression.operator.lexeme, expression.left, expression.right);
+        return parenthesize(expression.operator.lexeme, expression, expression.left, expression.right);
     }
     @Override
     public String visitGroupingExpression(Expression.Grouping expression) {
-        return parenthesize("group", expression.expression);
+        return "(" + expression.expression.accept(this) + ")";
     }
     @Override
     public String visitLiteralExpression(Expression.Literal expression) {
-        if (expression.value == null) {
+        Object value = expression.value;
+        if (value == null) {
             return "nil";
         }
+        else if (value instanceof Double) {
+            // Lox has no exponents, so 1e21 has to be written out in full. Negative numbers are a
+            // unary minus in front of a literal
+            String digits = BigDecimal.valueOf(Math.abs((Double) value)).stripTrailingZeros().toPlainString();
+            return (Double) value < 0 ? "(-" + digits + ")" : digits;
+        }
+        else if (value instanceof Boolean) {
+            return value.toString();
+        }
         else {
-            return expression.value.toString();
+            // a string (there's no escaping in Lox strings, so they can't have a " in them anyway)
+            return "\"" + value + "\"";
         }
     }
     @Override
     public String visitUnaryExpression(Expression.Unary expression) {
-        return parenthesize(expression.operator.lexeme, expression.right);
+        return expression.operator.lexeme + operand(expression.right, UNARY);
+    }
+    @Override
+    public String visitVariableExpression(Expression.Variable expression) {
+        return expression.name.lexeme;
+    }
+    @Override
+    public String visitAssignmentExpression(Expression.Assignment expression) {
+        return expression.name.lexeme + " = " + expression.value.accept(this);
+    }
+    @Override
+    public String visitLogicalExpression(Expression.Logical expression) {
+        return parenthesize(expression.operator.lexeme, expression, expression.left, expression.right);
+    }
+    @Override
+    public String visitCallExpression(Expression.Call expression) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(operand(expression.callee, CALL)).append("(");
+        for (int j = 0; j < expression.args.size(); j++) {
+            if (j > 0) sb.append(", ");
+            sb.append(expression.args.get(j).accept(this));
+        }
+        return sb.append(")").toString();
+    }
+    @Override
+    public String visitGetExpression(Expression.Get expression) {
+        return operand(expression.object, CALL) + "." + expression.name.lexeme;
+    }
+    @Override
+    public String visitSetExpression(Expression.Set expression) {
+        return operand(expression.object, CALL) + "." + expression.name.lexeme + " = " + expression.value.accept(this);
+    }
+    @Override
+    public String visitThisExpression(Expression.This expression) {
+        return "this";
+    }
+    @Override
+    public String visitSuperExpression(Expression.Super expression) {
+        return "super." + expression.method.lexeme;
+    }
+    @Override
+    public String visitGetIndexExpression(Expression.GetIndex expression) {
+        return operand(expression.object, CALL) + "[" + expression.index.accept(this) + "]";
+    }
+    @Override
+    public String visitSetIndexExpression(Expression.SetIndex expression) {
+        return operand(expression.object, CALL) + "[" + expression.index.accept(this) + "] = " +
+            expression.value.accept(this);
+    }
+    // hooks are left out, so an instrumented (or traced, or debugged) tree prints like the original
+    @Override
+    public String visitHookExpression(Expression.Hook expression) {
+        return expression.expression.accept(this);
     }
 
-    // a helper function to add parenthesis and spacing nicely
-    private String parenthesize(String name, Expression... exprs) {
+    // a helper function to add parenthesis and spacing nicely. Everything in Lox is left
+    // associative, so a + (b + c) needs its parentheses and (a + b) + c doesn't
+    private String parenthesize(String operator, Expression whole, Expression left, Expression right) {
+        int precedence = precedence(whole);
         StringBuilder sb = new StringBuilder();
-        sb.append("(").append(name);
-        for (Expression exp : exprs) {
-            sb.append(" ");
-            // recursively call the function on any sub-expressions!
-            sb.append(exp.accept(this));
+        // recursively call the function on any sub-expressions!
+        sb.append(operand(left, precedence));
+        sb.append(" ").append(operator).append(" ");
+        sb.append(operand(right, precedence + 1));
+        return sb.toString();
+    }
+
+    // how tightly each kind of expression binds, the same order as the Parser's grammar rules
+    private static final int ASSIGNMENT = 0, OR = 1, AND = 2, EQUALITY = 3, COMPARISON = 4,
+        TERM = 5, FACTOR = 6, UNARY = 7, CALL = 8;
+
+    private static int precedence(Expression exp) {
+        if (exp instanceof Expression.Hook) return precedence(((Expression.Hook) exp).expression);
+        if (exp instanceof Expression.Assignment || exp instanceof Expression.Set || exp instanceof Expression.SetIndex) {
+            return ASSIGNMENT;
+        }
+        if (exp instanceof Expression.Unary) return UNARY;
+        Token operator;
+        if (exp instanceof Expression.Binary) {
+            operator = ((Expression.Binary) exp).operator;
+        }
+        else if (exp instanceof Expression.Logical) {
+            operator = ((Expression.Logical) exp).operator;
+        }
+        else {
+            // calls, gets, groupings, variables and literals (negative numbers get their own parentheses)
+            return CALL;
+        }
+        switch (operator.type) {
+            case OR: return OR;
+            case AND: return AND;
+            case EQUAL_EQUAL: case BANG_EQUAL: return EQUALITY;
+            case LESS: case LESS_EQUAL: case GREATER: case GREATER_EQUAL: return COMPARISON;
+            case PLUS: case MINUS: return TERM;
+            default: return FACTOR;
         }
-        sb.append(")");
-        return sb.toString(); 
+    }
+
+    // exp printed where something of at least this precedence has to go
+    private String operand(Expression exp, int precedence) {
+        String printed = exp.accept(this);
+        return precedence(exp) < precedence ? "(" + printed + ")" : printed;
+    }
+
+    // ================================= Statements ========================= //
+
+    @Override
+    public Void visitExpressionStatementStatement(Statement.ExpressionStatement statement) {
+        line(statement.expression.accept(this) + ";");
+        return null;
+    }
+    @Override
+    public Void visitPrintStatementStatement(Statement.PrintStatement statement) {
+        line("print " + statement.expression.accept(this) + ";");
+        return null;
+    }
+    @Override
+    public Void visitVariableDeclarationStatement(Statement.VariableDeclaration statement) {
+        if (statement.initializer == null) {
+            line("var " + statement.name.lexeme + ";");
+        }
+        else {
+            line("var " + statement.name.lexeme + " = " + statement.initializer.accept(this) + ";");
+        }
+        return null;
+    }
+    @Override
+    public Void visitBlockStatementStatement(Statement.BlockStatement statement) {
+        line("{");
+        body(statement.statements);
+        line("}");
+        return null;
+    }
+    @Override
+    public Void visitIfStatementStatement(Statement.IfStatement statement) {
+        String header = "if (" + statement.condition.accept(this) + ")";
+        if (statement.elseCode == null) {
+            clause(header, statement.ifCode, "");
+            return null;
+        }
+        // } else { when the if part was a block
+        String rest = clause(header, statement.ifCode, " else");
+        clause(rest, statement.elseCode, "");
+        return null;
+    }
+    @Override
+    public Void visitWhileStatementStatement(Statement.WhileStatement statement) {
+        clause("while (" + statement.condition.accept(this) + ")", statement.code, "");
+        return null;
+    }
+    @Override
+    public Void visitBreakStatementStatement(Statement.BreakStatement statement) {
+        line("break;");
+        return null;
+    }
+    @Override
+    public Void visitFunctionStatementStatement(Statement.FunctionStatement statement) {
+        line("fun " + function(statement));
+        body(statement.code);
+        line("}");
+        return null;
+    }
+    @Override
+    public Void visitReturnStatementStatement(Statement.ReturnStatement statement) {
+        if (statement.exp == null) {
+            line("return;");
+        }
+        else {
+            line("return " + statement.exp.accept(this) + ";");
+        }
+        return null;
+    }
+    @Override
+    public Void visitClassDeclarationStatement(Statement.ClassDeclaration statement) {
+        String superclass = statement.superclass == null ? "" : " : " + statement.superclass.name.lexeme;
+        line("class " + statement.nameOfClass.lexeme + superclass + " {");
+        indent++;
+        for (Statement.FunctionStatement method : statement.methods) {
+            line(function(method));
+            body(method.code);
+            line("}");
+        }
+        indent--;
+        line("}");
+        return null;
+    }
+    @Override
+    public Void visitImportStatementStatement(Statement.ImportStatement statement) {
+        // the token's lexeme still has its quotes
+        line("import " + statement.path.lexeme + ";");
+        return null;
+    }
+    @Override
+    public Void visitHookStatement(Statement.Hook statement) {
+        return statement.statement.accept(this);
+    }
+
+    // name(args) {, methods don't get the fun in front
+    private String function(Statement.FunctionStatement statement) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(statement.funcName.lexeme).append("(");
+        for (int j = 0; j < statement.args.size(); j++) {
+            if (j > 0) sb.append(", ");
+            sb.append(statement.args.get(j).lexeme);
+        }
+        return sb.append(") {").toString();
+    }
+
+    private void body(List<Statement> statements) {
+        indent++;
+        for (Statement s : statements) {
+            s.accept(this);
+        }
+        indent--;
+    }
+
+    // the header of an if, else or while and its body, which is either a block that goes
+    // header { ... } or one statement on its own indented line. after is what comes next (like
+    // " else"), which goes on the closing brace's line if there is one. Returns the start of
+    // the next line, so an else can be the header of the next clause
+    private String clause(String header, Statement body, String after) {
+        // a hooked body prints like the body it wraps
+        while (body instanceof Statement.Hook) body = ((Statement.Hook) body).statement;
+        if (body instanceof Statement.BlockStatement) {
+            line(header + " {");
+            body(((Statement.BlockStatement) body).statements);
+            if (after.isEmpty()) line("}");
+            return "}" + after;
+        }
+        line(header);
+        indent++;
+        body.accept(this);
+        indent--;
+        return after.trim();
+    }
+
+    // past this many levels lines stop moving right, otherwise a program nested a thousand deep
+    // is mostly spaces and its size goes up with the square of the depth
+    private static final int MAX_INDENT = 16;
+
+    private void line(String text) {
+        for (int j = 0; j < Math.min(indent, MAX_INDENT); j++) out.append("    ");
+        out.append(text).append('\n');
     }
 
     public static void main(String[] args) {
-        Expression exp = new Expression.Binary(new Expression.Literal(32), 
+        Expression exp = new Expression.Binary(new Expression.Literal(32.0), 
         new Token(TokenType.MINUS, "-", null, 1), 
-        new Expression.Grouping(new Expression.Literal(41)));
+        new Expression.Grouping(new Expression.Literal(41.0)));
         
         System.out.println(new AstPrinter().print(exp));
     }
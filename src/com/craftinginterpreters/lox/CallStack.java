@@ -0,0 +1,75 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+/**
+ * The Lox functions an interpreter is currently inside of, outermost first, and the line each one
+ * was called from. The java stack has all of this too, but buried under Interpreter.visit* frames
+ * (and filling in a java stack trace is slow), so LoxFunction.call keeps this shadow copy up to
+ * date as it goes. It's just two arrays and a depth, so keeping it costs a few writes per call.
+ *
+ * Runtime errors use it for their Lox stack trace, see trace().
+ *
+ * Only the interpreter that owns a stack changes it. The profiler reads it from its own thread
+ * without any locking, so what it sees can be a call or two out of date, which is fine for
+ * a sample.
+ */
+class CallStack {
+    private static final int INITIAL_CAPACITY = 32;
+
+    private LoxFunction[] functions = new LoxFunction[INITIAL_CAPACITY];
+
+    // lines[k] is the line of the call that started functions[k], in the function below it (or the script)
+    private int[] lines = new int[INITIAL_CAPACITY];
+
+    // volatile so the profiler sees calls as they happen, and not whenever the JIT gets around to it
+    private volatile int depth = 0;
+
+    void push(LoxFunction function, int callLine) {
+        int d = depth;
+        if (d == functions.length) {
+            functions = Arrays.copyOf(functions, d * 2);
+            lines = Arrays.copyOf(lines, d * 2);
+        }
+        functions[d] = function;
+        lines[d] = callLine;
+        depth = d + 1;
+    }
+
+    // a tail call reuses the caller's frame, see LoxFunction.call. It was still called from the same
+    // place, the function that made the tail call just isn't on the stack anymore
+    void replaceTop(LoxFunction function) {
+        functions[depth - 1] = function;
+    }
+
+    void pop() {
+        int d = depth - 1;
+        functions[d] = null;
+        depth = d;
+    }
+
+    int depth() {
+        return depth;
+    }
+
+    // a copy of the stack, outermost first. Safe to call from any thread, a slot the owner
+    // is changing right now may come back as null
+    LoxFunction[] snapshot() {
+        int d = depth;
+        LoxFunction[] current = functions;
+        return Arrays.copyOf(current, Math.min(d, current.length));
+    }
+
+    // where every function on the stack is at, innermost first, for a runtime error on line.
+    // Only the owner calls this, it's built when an error happens so calls don't pay for it
+    String[] trace(int line) {
+        int d = depth;
+        String[] frames = new String[d + 1];
+        for (int k = d - 1; k >= 0; k--) {
+            frames[d - 1 - k] = functions[k].name().lexeme + "() at line " + line;
+            line = lines[k];
+        }
+        frames[d] = "script at line " + line;
+        return frames;
+    }
+}
@@ -0,0 +1,93 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A script that has been through the whole front end: scanned, parsed and resolved.
+ *
+ * The Resolver writes its results into the tree itself (the depth fields and isTailCall), and
+ * nothing touches the tree after that, so a CompiledScript is immutable. Any number of
+ * interpreters can run the same one at the same time, which is what ScriptCache is for.
+ */
+public final class CompiledScript {
+    private final List<Statement> statements;
+
+    // how long the source was, ScriptCache uses this to decide how much room a script takes
+    private final int sourceLength;
+
+    // the path token of every top level import statement, in the order they appear
+    private final List<Token> imports;
+
+    private CompiledScript(List<Statement> statements, int sourceLength) {
+        this.statements = Collections.unmodifiableList(statements);
+        this.sourceLength = sourceLength;
+
+        List<Token> imports = new ArrayList<>();
+        for (Statement s : statements) {
+            if (s instanceof Statement.ImportStatement) {
+                imports.add(((Statement.ImportStatement) s).path);
+            }
+        }
+        this.imports = Collections.unmodifiableList(imports);
+    }
+
+    // runs the front end on this source. Errors get reported to reporter, and if there were
+    // any this returns null since there's nothing that can be run.
+    // reporter should have been reset before this, since any earlier error counts too
+    public static CompiledScript compile(String source, ErrorReporter reporter) {
+        List<Statement> statements = parse(source, reporter);
+
+        // if there was an error in the source, don't resolve it
+        if (statements == null) return null;
+
+        return resolve(statements, source.length(), reporter);
+    }
+
+    // the first half of compile, scanning and parsing. Returns null if there were errors.
+    // ModuleLoader runs this for many files at once, and the resolve half afterwards
+    static List<Statement> parse(String source, ErrorReporter reporter) {
+        long start = System.nanoTime();
+
+        // pass each line to the scanner to be lexed
+        Scanner scanner = new Scanner(source, reporter);
+        List<Token> tokens = scanner.scanTokens();
+        long scanned = System.nanoTime();
+        LoxMetrics.ENGINE.scanned(scanned - start);
+
+        // pass list of tokens to parser
+        Parser parser = new Parser(tokens, reporter);
+        List<Statement> statements = parser.parse();
+        LoxMetrics.ENGINE.parsed(System.nanoTime() - scanned);
+
+        if (reporter.hadError()) return null;
+        return statements;
+    }
+
+    // the second half of compile, resolving a tree that parsed without errors
+    static CompiledScript resolve(List<Statement> statements, int sourceLength, ErrorReporter reporter) {
+        // run resolver (fills in the depth of every local variable in the tree)
+        long start = System.nanoTime();
+        Resolver r = new Resolver(reporter);
+        r.resolve(statements);
+        LoxMetrics.ENGINE.resolved(System.nanoTime() - start);
+
+        // check for resolver errors
+        if (reporter.hadError()) return null;
+
+        return new CompiledScript(statements, sourceLength);
+    }
+
+    List<Statement> getStatements() {
+        return statements;
+    }
+
+    int getSourceLength() {
+        return sourceLength;
+    }
+
+    List<Token> getImports() {
+        return imports;
+    }
+}
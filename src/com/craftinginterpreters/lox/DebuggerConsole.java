@@ -0,0 +1,144 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The command line front end of LoxDebugger, for jlox -Dlox.debug=true. It stops before the first
+ * line of the script and then reads commands, one per line:
+ *
+ *   c            continue to the next breakpoint
+ *   s            step to the next line, going into calls
+ *   n            step to the next line in this function (or the one it returns to)
+ *   o            step out of this function
+ *   b <line>     set a breakpoint (b math.lox:<line> for imported files)
+ *   d <line>     remove a breakpoint
+ *   l            the variables in the innermost scope
+ *   v            the variables in every scope but the globals
+ *   bt           the Lox call stack
+ *   q            stop debugging and let the script run
+ *
+ * An empty line repeats the last step. Everything the debugger says goes to err, so it doesn't
+ * get mixed up with what the script prints.
+ */
+public class DebuggerConsole implements LoxDebugger.Listener {
+    private final BufferedReader in;
+    private final PrintStream err;
+
+    // the script's lines, to show where it stopped. Empty if we don't have them
+    private List<String> source = new ArrayList<>();
+
+    private LoxDebugger.Command lastStep = LoxDebugger.Command.STEP_OVER;
+
+    public DebuggerConsole(InputStream in, PrintStream err) {
+        this.in = new BufferedReader(new InputStreamReader(in));
+        this.err = err;
+    }
+
+    public void setSource(List<String> lines) {
+        source = lines;
+    }
+
+    @Override
+    public LoxDebugger.Command paused(LoxDebugger debugger, LoxDebugger.Pause where) {
+        String file = where.getFile();
+        String text = file == null && where.getLine() >= 1 && where.getLine() <= source.size()
+            ? source.get(where.getLine() - 1).trim() : where.getStatementKind();
+        err.println("[" + (file == null ? "line " : file + ":") + where.getLine() + "] " + text);
+
+        for (;;) {
+            err.print("debug> ");
+            err.flush();
+            String line;
+            try {
+                line = in.readLine();
+            }
+            catch (IOException e) {
+                line = null;
+            }
+            // nobody's there to ask anymore
+            if (line == null) return LoxDebugger.Command.CONTINUE;
+
+            String[] words = line.trim().split("\\s+");
+            switch (words[0]) {
+                case "":
+                    return lastStep;
+                case "c":
+                    return LoxDebugger.Command.CONTINUE;
+                case "s":
+                    return lastStep = LoxDebugger.Command.STEP_INTO;
+                case "n":
+                    return lastStep = LoxDebugger.Command.STEP_OVER;
+                case "o":
+                    return lastStep = LoxDebugger.Command.STEP_OUT;
+                case "b":
+                case "d":
+                    breakpoint(debugger, words);
+                    break;
+                case "l":
+                    printScopes(where.getScopes().subList(0, 1));
+                    break;
+                case "v": {
+                    List<Map<String, String>> scopes = where.getScopes();
+                    printScopes(scopes.subList(0, Math.max(1, scopes.size() - 1)));
+                    break;
+                }
+                case "bt":
+                    for (String frame : where.getCallStack()) {
+                        err.println("  in " + frame);
+                    }
+                    err.println("  in script");
+                    break;
+                case "q":
+                    for (String b : debugger.getBreakpoints()) {
+                        breakpoint(debugger, new String[] {"d", b});
+                    }
+                    return LoxDebugger.Command.CONTINUE;
+                default:
+                    err.println("Commands: c s n o b <line> d <line> l v bt q");
+            }
+        }
+    }
+
+    private void breakpoint(LoxDebugger debugger, String[] words) {
+        if (words.length != 2) {
+            err.println("Usage: " + words[0] + " [file:]<line>");
+            return;
+        }
+        String file = null;
+        String line = words[1];
+        int colon = line.lastIndexOf(':');
+        if (colon >= 0) {
+            file = line.substring(0, colon);
+            line = line.substring(colon + 1);
+        }
+        try {
+            if (words[0].equals("b")) {
+                debugger.setBreakpoint(file, Integer.parseInt(line));
+            }
+            else {
+                debugger.removeBreakpoint(file, Integer.parseInt(line));
+            }
+        }
+        catch (NumberFormatException e) {
+            err.println("Not a line number: " + line);
+        }
+    }
+
+    private void printScopes(List<Map<String, String>> scopes) {
+        boolean none = true;
+        for (int depth = 0; depth < scopes.size(); depth++) {
+            for (Map.Entry<String, String> variable : scopes.get(depth).entrySet()) {
+                err.println("  " + (depth == 0 ? "" : "(" + depth + " up) ") + variable.getKey() + " = " + variable.getValue());
+                none = false;
+            }
+        }
+        if (none) err.println("  no variables");
+    }
+}
@@ -1,36 +1,63 @@
 package com.craftinginterpreters.lox;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.TreeMap;
 
 // the environment holds all declared variables during the execution of a Lox program
-// internally its just a hashmap
+// internally its just a hashmap. The names are interned by the Scanner (see StringTable),
+// so lookups hit HashMap's == check and never compare characters
 public class Environment {
+    // stands in for nil inside the maps, because ConcurrentHashMap can't hold null values.
+    // It also means a single get() tells "not defined" (null) apart from "defined as nil"
+    static final Object NIL = new Object();
+
     // reference to parent environment
     final Environment parentEnv;
     
-    private final Map<String, Object> variableToValue = new HashMap<>();
+    private final Map<String, Object> variableToValue;
+
+    // the isolate's concurrency mode, which decides what map every scope gets. The globals are
+    // shared by every fiber and parallelMap worker, and so is any scope a function they run
+    // closed over, so scopes need the same thread safety as the globals
+    private final LoxIsolate.Concurrency concurrency;
 
     // global scope has no parent environment
-    Environment() {
+    Environment(LoxIsolate.Concurrency concurrency) {
         parentEnv = null;
+        this.concurrency = concurrency;
+        variableToValue = concurrency.newMap();
     }
 
     // for any other scopes, either global scope will be its parent environment
     // or some other block scope
     Environment(Environment parentEnv) {
         this.parentEnv = parentEnv;
+        concurrency = parentEnv.concurrency;
+        variableToValue = concurrency.newMap();
+    }
+
+    // for function calls, where we know up front how many variables (the parameters) go in
+    Environment(Environment parentEnv, int expectedVariables) {
+        this.parentEnv = parentEnv;
+        concurrency = parentEnv.concurrency;
+        variableToValue = concurrency.newMap(expectedVariables);
     }
 
     public void addNewVariable(String varName, Object val) {
-        if (variableToValue.containsKey(varName)) {
+        if (variableToValue.put(varName, wrap(val)) != null) {
             System.out.println("Variable redefinition error: " + varName + " is already taken.");
         }
-        variableToValue.put(varName, val);
+    }
+
+    // like addNewVariable but without the redefinition check, for names that are known to be
+    // unique like function parameters (the Resolver already rejects fun f(a, a))
+    void define(String varName, Object val) {
+        variableToValue.put(varName, wrap(val));
     }
 
     public Object getVariableValue(Token varName) {
-        if (!variableToValue.containsKey(varName.lexeme)) {
+        Object val = variableToValue.get(varName.lexeme);
+        if (val == null) {
             if (parentEnv != null) {
                 // not global scope yet, then try asking parent env if it knows
                 return parentEnv.getVariableValue(varName);
@@ -40,11 +67,13 @@ public class Environment {
                 throw new RuntimeError(varName, "Can't access variable: " + varName.lexeme + " is not defined");
             }
         }
-        return variableToValue.get(varName.lexeme);
+        return unwrap(val);
     }
 
     public void changeExistingVariable(Token varName, Object val) {
-        if (!variableToValue.containsKey(varName.lexeme)) {
+        // replace only writes if the variable is already there (and does it atomically on the
+        // concurrent map, so two fibers can't both see a global as missing)
+        if (variableToValue.replace(varName.lexeme, wrap(val)) == null) {
             if (parentEnv != null) {
                 // not global scope yet, then try asking parent env if it knows
                 parentEnv.changeExistingVariable(varName, val);
@@ -55,23 +84,39 @@ public class Environment {
                 throw new RuntimeError(varName, "Can't change existing variable: " + varName.lexeme + " is not defined");
             }
         }
-        variableToValue.put(varName.lexeme, val);
     }
 
-    public Object getAt(String varName, Integer distance) {
+    public Object getAt(String varName, int distance) {
         if (distance == 0) {
-            return variableToValue.get(varName);
+            return unwrap(variableToValue.get(varName));
         }
         else {
             return parentEnv.getAt(varName, distance-1);
         }
     }
-    public void setAt(String varName, Integer distance, Object val) {
+    public void setAt(String varName, int distance, Object val) {
         if (distance == 0) {
-            variableToValue.put(varName, val);
+            variableToValue.put(varName, wrap(val));
         }
         else {
             parentEnv.setAt(varName, distance-1, val);
         }
     }
+
+    // a copy of the variables in just this scope, for the debugger to show
+    Map<String, Object> variables() {
+        Map<String, Object> copy = new TreeMap<>();
+        for (Map.Entry<String, Object> entry : variableToValue.entrySet()) {
+            copy.put(entry.getKey(), unwrap(entry.getValue()));
+        }
+        return copy;
+    }
+
+    static Object wrap(Object val) {
+        return val == null ? NIL : val;
+    }
+
+    static Object unwrap(Object val) {
+        return val == NIL ? null : val;
+    }
 }
@@ -0,0 +1,109 @@
+package com.craftinginterpreters.lox;
+
+import java.io.PrintStream;
+
+/**
+ * Collects the errors from one LoxIsolate. The Scanner, Parser and Resolver report syntax and
+ * static errors here, and the Interpreter reports runtime errors here.
+ *
+ * These used to be static methods and flags on Lox, which meant two scripts couldn't run
+ * at the same time without mixing up each other's errors. Fibers from the same isolate can report
+ * at the same time, which is why everything here is synchronized.
+ */
+public class ErrorReporter {
+    // where error messages get printed
+    private final PrintStream err;
+
+    // sets to true if we have error during lexing or parsing (or resolving)
+    private boolean hadError = false;
+
+    // sets to true if we have error during runtime
+    private boolean hadRuntimeError = false;
+
+    // the reporter for the isolate. Reporters for imported files (see forFile) pass everything up to it
+    private final ErrorReporter root;
+
+    // which imported file errors came from, or null for the main script
+    private final String fileName;
+
+    ErrorReporter(PrintStream err) {
+        this.err = err;
+        root = this;
+        fileName = null;
+    }
+
+    private ErrorReporter(ErrorReporter root, String fileName) {
+        this.err = root.err;
+        this.root = root;
+        this.fileName = fileName;
+    }
+
+    // a reporter for one imported file. Its errors say which file they're in, and they count
+    // as errors of this isolate, so hadError() on either one sees them
+    ErrorReporter forFile(String fileName) {
+        return new ErrorReporter(root, fileName);
+    }
+
+    public boolean hadError() {
+        synchronized (root) {
+            return root.hadError;
+        }
+    }
+
+    public boolean hadRuntimeError() {
+        synchronized (root) {
+            return root.hadRuntimeError;
+        }
+    }
+
+    // forget about the errors from the last run
+    void reset() {
+        synchronized (root) {
+            root.hadError = false;
+            root.hadRuntimeError = false;
+        }
+    }
+
+    // note that this doesn't actually stop the program, it just prints error message instead
+    // called from Scanner.java
+    void error(int line, String message) {
+        report(line, "", message);
+    }
+
+    // another interface for error reporting, where we pass along a erroring Token instead
+    // called from Parser.java and Resolver.java
+    void error(Token t, String message) {
+        if (t.type == TokenType.EOF) {
+            report(t.line, " at end of file", message);
+        }
+        else {
+            report(t.line, " at '" + t.lexeme + "'", message);
+        }
+    }
+
+    // called from Interpreter.java (runtime)
+    void runtimeError(RuntimeError r) {
+        synchronized (root) {
+            root.hadRuntimeError = true;
+            err.println("[" + location(r.token.line) + "] token " +
+            r.token.lexeme + ": " + r.getMessage());
+            if (r.loxStack != null) {
+                for (String frame : r.loxStack) {
+                    err.println("    in " + frame);
+                }
+            }
+        }
+    }
+
+    private void report(int line, String where, String message) {
+        synchronized (root) {
+            err.println("[" + location(line) + "] Error" + where + ": " + message);
+            root.hadError = true;
+        }
+    }
+
+    private String location(int line) {
+        if (fileName == null) return "line " + line;
+        return fileName + " line " + line;
+    }
+}
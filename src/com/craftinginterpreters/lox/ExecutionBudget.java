@@ -0,0 +1,64 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits on how long one run of a LoxIsolate may take: a number of steps and a wall clock
+ * deadline. A step is one loop iteration or one function call, since those are the only ways
+ * Lox code can keep running for a long time. When either limit runs out, the code gets a
+ * RuntimeError like any other, so the isolate reports it and returns RUNTIME_ERROR.
+ *
+ * Interpreters don't touch this on every step. Each one takes steps from here in chunks and
+ * just counts them down (see Interpreter.tick), and only comes back for more (and looks at the
+ * clock) when its chunk is used up. So the checks cost almost nothing, even with no limits set.
+ * Fibers and parallel workers from the run share the same budget. A chunk is never more than an
+ * eighth of what's left, so a few forks sitting on steps can't use up a small budget between them,
+ * and forks give back what they didn't use when they finish (see Interpreter.finishFork).
+ */
+class ExecutionBudget {
+    // how many steps an interpreter takes at a time, at most
+    static final int CHUNK = 1024;
+
+    // no step limit and no deadline
+    static final ExecutionBudget UNLIMITED = new ExecutionBudget(0, 0);
+
+    // 0 means no limit
+    private final long maxSteps;
+    private final long timeoutMillis;
+
+    private final AtomicLong stepsLeft;
+
+    // System.nanoTime() when time runs out
+    private final long deadline;
+
+    // the deadline starts counting now
+    ExecutionBudget(long maxSteps, long timeoutMillis) {
+        this.maxSteps = maxSteps;
+        this.timeoutMillis = timeoutMillis;
+        stepsLeft = new AtomicLong(maxSteps);
+        deadline = System.nanoTime() + timeoutMillis * 1_000_000;
+    }
+
+    // returns how many more steps the caller can take before asking again.
+    // where is the loop or function that is asking, so the error points at it
+    int take(Token where) {
+        if (timeoutMillis != 0 && System.nanoTime() - deadline > 0) {
+            throw new RuntimeError(where, "Script ran past its time limit of " + timeoutMillis + " ms");
+        }
+        if (maxSteps == 0) return CHUNK;
+
+        while (true) {
+            long left = stepsLeft.get();
+            if (left <= 0) {
+                throw new RuntimeError(where, "Script used up its budget of " + maxSteps + " steps");
+            }
+            int steps = (int) Math.max(1, Math.min(CHUNK, left / 8));
+            if (stepsLeft.compareAndSet(left, left - steps)) return steps;
+        }
+    }
+
+    // steps someone took with take() but never used
+    void giveBack(int steps) {
+        if (maxSteps != 0 && steps > 0) stepsLeft.addAndGet(steps);
+    }
+}
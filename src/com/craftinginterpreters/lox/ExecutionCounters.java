@@ -0,0 +1,66 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * How many times each line of Lox code ran and how much time was spent on it, and the same for
+ * each function. The numbers come from the hooks Instrumenter puts into its copy of the syntax tree,
+ * so an isolate that isn't instrumented doesn't pay anything for this.
+ *
+ * Times are self times: a line gets the time spent evaluating the statements and expressions
+ * written on it, but not the time spent in functions it calls, so a line's time and its callee's
+ * time never get counted twice. A function's time is the self time of all the lines in its body.
+ * Counts for lines are statements run, counts for functions are calls.
+ */
+class ExecutionCounters {
+    static class Counter {
+        final String name;
+        final LongAdder count = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+
+        Counter(String name) {
+            this.name = name;
+        }
+    }
+
+    // line label -> counter. Every node on a line shares its counter
+    private final Map<String, Counter> lines = new ConcurrentHashMap<>();
+    private final Map<String, Counter> functions = new ConcurrentHashMap<>();
+
+    // code outside of any function
+    final Counter script = function("<script>");
+
+    Counter line(String label) {
+        return lines.computeIfAbsent(label, Counter::new);
+    }
+
+    Counter function(String label) {
+        return functions.computeIfAbsent(label, Counter::new);
+    }
+
+    // the topN lines and functions that took the most time
+    String report(int topN) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("hottest lines\n");
+        table(sb, lines.values(), topN, "runs");
+        sb.append("hottest functions\n");
+        table(sb, functions.values(), topN, "calls");
+        return sb.toString();
+    }
+
+    private static void table(StringBuilder sb, Collection<Counter> counters, int topN, String countName) {
+        List<Counter> sorted = new ArrayList<>(counters);
+        sorted.sort((a, b) -> Long.compare(b.nanos.sum(), a.nanos.sum()));
+
+        sb.append(String.format("  %-24s %12s %12s%n", "where", countName, "self ms"));
+        for (int k = 0; k < Math.min(topN, sorted.size()); k++) {
+            Counter c = sorted.get(k);
+            sb.append(String.format("  %-24s %12d %12.3f%n", c.name, c.count.sum(), c.nanos.sum() / 1e6));
+        }
+    }
+}
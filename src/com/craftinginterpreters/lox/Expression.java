@@ -17,6 +17,9 @@ abstract class Expression {
 		R visitSetExpression(Set expression);
 		R visitThisExpression(This expression);
 		R visitSuperExpression(Super expression);
+		R visitGetIndexExpression(GetIndex expression);
+		R visitSetIndexExpression(SetIndex expression);
+		R visitHookExpression(Hook expression);
 	}
 	static class Binary extends Expression {
 		final Expression left;
@@ -75,6 +78,9 @@ abstract class Expression {
 	static class Variable extends Expression {
 		final Token name;
 
+		// filled in by the Resolver
+		int depth = -1;
+
 		@Override
 		<R> R accept(Visitor<R> visitor) {
 			return visitor.visitVariableExpression(this);
@@ -88,6 +94,9 @@ abstract class Expression {
 		final Token name;
 		final Expression value;
 
+		// filled in by the Resolver
+		int depth = -1;
+
 		@Override
 		<R> R accept(Visitor<R> visitor) {
 			return visitor.visitAssignmentExpression(this);
@@ -163,6 +172,9 @@ abstract class Expression {
 	static class This extends Expression {
 		final Token keyword;
 
+		// filled in by the Resolver
+		int depth = -1;
+
 		@Override
 		<R> R accept(Visitor<R> visitor) {
 			return visitor.visitThisExpression(this);
@@ -176,6 +188,9 @@ abstract class Expression {
 		final Token keyword;
 		final Token method;
 
+		// filled in by the Resolver
+		int depth = -1;
+
 		@Override
 		<R> R accept(Visitor<R> visitor) {
 			return visitor.visitSuperExpression(this);
@@ -186,6 +201,54 @@ abstract class Expression {
 			this.method = method;
 		}
 	}
+	static class GetIndex extends Expression {
+		final Expression object;
+		final Token bracket;
+		final Expression index;
+
+		@Override
+		<R> R accept(Visitor<R> visitor) {
+			return visitor.visitGetIndexExpression(this);
+		}
+
+		GetIndex(Expression object, Token bracket, Expression index) {
+			this.object = object;
+			this.bracket = bracket;
+			this.index = index;
+		}
+	}
+	static class SetIndex extends Expression {
+		final Expression object;
+		final Token bracket;
+		final Expression index;
+		final Expression value;
+
+		@Override
+		<R> R accept(Visitor<R> visitor) {
+			return visitor.visitSetIndexExpression(this);
+		}
+
+		SetIndex(Expression object, Token bracket, Expression index, Expression value) {
+			this.object = object;
+			this.bracket = bracket;
+			this.index = index;
+			this.value = value;
+		}
+	}
+	static class Hook extends Expression {
+		final Expression expression;
+		final Probe probe;
+
+		@Override
+		<R> R accept(Visitor<R> visitor) {
+			return visitor.visitHookExpression(this);
+		}
+
+		Hook(Expression expression, Probe probe) {
+			this.expression = expression;
+			this.probe = probe;
+		}
+	}
 
 	abstract <R> R accept(Visitor<R> visitor);
 }
@@ -0,0 +1,133 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Makes an instrumented copy of a resolved syntax tree, for isolates built with instrument(true).
+ * Every statement in the copy gets a hook with a Counted probe, and every function body one with
+ * a CountedBody, which time and count into ExecutionCounters around running the node they hook.
+ * See TreeRewriter for how the copying works.
+ *
+ * Counters are per line, so an expression only gets a hook of its own when it starts on a
+ * different line than the node it's in (like the arguments of a call split over several lines).
+ * Everything else on a line is already timed by the statement around it.
+ */
+class Instrumenter extends TreeRewriter {
+    private final ExecutionCounters counters;
+
+    // the imported file this code is from, or null for the script itself
+    private final String file;
+
+    // the function whose body is being copied, time on its lines goes here too
+    private ExecutionCounters.Counter function;
+
+    Instrumenter(ExecutionCounters counters, String file) {
+        this.counters = counters;
+        this.file = file;
+        function = counters.script;
+    }
+
+    List<Statement> instrument(List<Statement> program) {
+        counters.script.count.increment();
+        return rewrite(program);
+    }
+
+    // counts a statement for its line and function. It keeps the time spent inside the node it
+    // hooks minus the time spent in other counted nodes inside it (which includes any calls), and
+    // tells the interpreter how long it took so the probe around this one can do the same
+    static class Counted extends Probe {
+        final ExecutionCounters.Counter line;
+        final ExecutionCounters.Counter function;
+
+        Counted(ExecutionCounters.Counter line, ExecutionCounters.Counter function) {
+            this.line = line;
+            this.function = function;
+        }
+
+        @Override
+        Object statement(Interpreter interpreter, Statement statement) {
+            line.count.increment();
+            long outerNanos = interpreter.instrumentedNanos;
+            interpreter.instrumentedNanos = 0;
+            long start = System.nanoTime();
+            try {
+                return statement.accept(interpreter);
+            }
+            finally {
+                finish(interpreter, outerNanos, start);
+            }
+        }
+
+        // same as a statement, but expressions only add to the time of their line, not its count
+        @Override
+        Object expression(Interpreter interpreter, Expression expression) {
+            long outerNanos = interpreter.instrumentedNanos;
+            interpreter.instrumentedNanos = 0;
+            long start = System.nanoTime();
+            try {
+                return expression.accept(interpreter);
+            }
+            finally {
+                finish(interpreter, outerNanos, start);
+            }
+        }
+
+        private void finish(Interpreter interpreter, long outerNanos, long start) {
+            long total = System.nanoTime() - start;
+            long self = total - interpreter.instrumentedNanos;
+            line.nanos.add(self);
+            function.nanos.add(self);
+            interpreter.instrumentedNanos = outerNanos + total;
+        }
+    }
+
+    // counts the calls of a function. It hooks a block holding the whole body, and runs the
+    // statements the same way Interpreter.executeBlock does, in the environment LoxFunction.call
+    // already set up (running the block itself would put the body a scope further in than the
+    // Resolver left it)
+    static class CountedBody extends Probe {
+        final ExecutionCounters.Counter function;
+
+        CountedBody(ExecutionCounters.Counter function) {
+            this.function = function;
+        }
+
+        @Override
+        Object statement(Interpreter interpreter, Statement body) {
+            function.count.increment();
+            return interpreter.executeBlock(((Statement.BlockStatement) body).statements, interpreter.currentEnv);
+        }
+    }
+
+    private String where(int line) {
+        return file == null ? "line " + line : file + ":" + line;
+    }
+
+    @Override
+    protected Statement wrap(Statement copy) {
+        return new Statement.Hook(copy, new Counted(counters.line(where(line)), function));
+    }
+
+    @Override
+    protected Expression wrap(Expression copy) {
+        return new Expression.Hook(copy, new Counted(counters.line(where(line)), function));
+    }
+
+    // the time on the lines of the body goes to this function, and its calls get counted
+    @Override
+    protected Statement.FunctionStatement function(Statement.FunctionStatement s, String name) {
+        ExecutionCounters.Counter outerFunction = function;
+        try {
+            ExecutionCounters.Counter counter = counters.function(name + " (" + where(s.funcName.line) + ")");
+            function = counter;
+            Statement.FunctionStatement copy = super.function(s, name);
+            Statement body = new Statement.BlockStatement(copy.funcName, copy.code);
+            return new Statement.FunctionStatement(copy.funcName, copy.args,
+                Collections.singletonList(new Statement.Hook(body, new CountedBody(counter))));
+        }
+        finally {
+            function = outerFunction;
+        }
+    }
+}
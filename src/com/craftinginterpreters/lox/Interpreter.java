@@ -1,13 +1,14 @@
 package com.craftinginterpreters.lox;
 import static com.craftinginterpreters.lox.TokenType.*;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import com.craftinginterpreters.lox.Expression.Get;
+import com.craftinginterpreters.lox.Expression.GetIndex;
 import com.craftinginterpreters.lox.Expression.Set;
+import com.craftinginterpreters.lox.Expression.SetIndex;
 import com.craftinginterpreters.lox.Expression.Super;
 import com.craftinginterpreters.lox.Expression.This;
 import com.craftinginterpreters.lox.Statement.ClassDeclaration;
@@ -18,46 +19,196 @@ import com.craftinginterpreters.lox.Statement.ClassDeclaration;
 // Object (which can be any of the primitive data types)
 // this allows for dynamic typing, meaning that the variables in Lox don't need to declare their type
 // we figure all that out here instead.
-public class Interpreter implements Expression.Visitor<Object>, Statement.Visitor<Void> {
+// statements are visited as Statement.Visitor<Object>, where the Object says how the statement finished
+// (see the completions below), so return and break don't need to throw exceptions
+public class Interpreter implements Expression.Visitor<Object>, Statement.Visitor<Object> {
 
-    // the global environment, with our native functions and variables in it
-    final public Environment globals = new Environment();
+    // the global environment, with our native functions and variables in it.
+    // this is shared with every Interpreter made by fork()
+    final public Environment globals;
 
-    // the current innermost scope's environment (initially set to globals)
-    public Environment currentEnv = globals;
+    // the current innermost scope's environment (initially set to globals).
+    // this is the execution state that belongs to just one thread of Lox code
+    public Environment currentEnv;
 
-    // for breaks that aren't placed properly
-    private static class BreakException extends RuntimeException {}
+    // ===== completions: what executing a statement hands back. null means it finished normally ===== //
 
-    // for returning a value
-    public static class ReturnException extends RuntimeException {
+    // a break statement ran, the innermost while loop stops when it sees this
+    private static final Object BREAK = new Object();
+
+    // a return statement ran. This gets passed back up through the blocks, ifs and loops
+    // of the function until it reaches LoxFunction.call
+    static class Return {
         final Object returnValue;
-        ReturnException(Object returnValue) {
+        Return(Object returnValue) {
             this.returnValue = returnValue;
         }
     }
 
-    // for resolving symbols in current scope
-    HashMap<Expression, Integer> locals = new HashMap<>();
+    // a "return f(...)" where f is a Lox function. Instead of calling f here (which would put f's
+    // frames on top of ours), we hand f and its arguments back to LoxFunction.call to run in our place
+    static class TailCall {
+        final LoxFunction function;
+        final Object[] args;
+        TailCall(LoxFunction function, Object[] args) {
+            this.function = function;
+            this.args = args;
+        }
+    }
+
+    // shared by every call with no arguments, nobody writes into it
+    static final Object[] NO_ARGS = new Object[0];
+
+    // where runtime errors go, this belongs to the LoxIsolate running us
+    private final ErrorReporter reporter;
+
+    // where print statements write to, this belongs to the LoxIsolate too
+    private final OutputSink out;
+
+    // whether this isolate lets Lox code run on several threads, see LoxIsolate.Concurrency
+    final LoxIsolate.Concurrency concurrency;
+
+    // the step and time limits for the current run, shared with forks
+    private ExecutionBudget budget = ExecutionBudget.UNLIMITED;
+
+    // steps this interpreter can still take before going back to the budget
+    private int stepsUntilCheck = 0;
+
+    // counts what the Lox code allocates, or null if the isolate isn't tracking that. Shared with forks
+    private final AllocationTracker allocations;
+
+    // bytes this interpreter can still allocate before going back to the tracker
+    private long allocationCredit = 0;
+
+    // the fibers started by this interpreter and its forks that are still running
+    final LoxFiber.Running fibers;
+
+    // the Lox functions this interpreter is in right now, kept by LoxFunction.call
+    final CallStack callStack = new CallStack();
+
+    // the line of the call being made, for LoxFunction.call to put on the callStack
+    int callLine = 0;
+
+    // samples every interpreter's callStack, or null if the isolate isn't profiling. Shared with forks
+    private final LoxProfiler profiler;
+
+    // Lox calls and instances made since the last flushMetrics(). Counting them here instead of
+    // straight into LoxMetrics keeps a call down to a plain increment
+    long callCount = 0;
+    long instanceCount = 0;
+
+    // time spent in instrumented nodes under the one running now, see Instrumenter.Counted
+    long instrumentedNanos = 0;
+
+    Interpreter(ErrorReporter reporter, OutputSink out, LoxIsolate.Concurrency concurrency,
+                AllocationTracker allocations, LoxProfiler profiler, boolean fileAccess) {
+        this.reporter = reporter;
+        this.out = out;
+        this.concurrency = concurrency;
+        this.allocations = allocations;
+        this.profiler = profiler;
+        if (profiler != null) profiler.register(callStack, true);
+        fibers = new LoxFiber.Running();
+        globals = new Environment(concurrency);
+        currentEnv = globals;
 
-    Interpreter() {
         // instantiate some native functions in global environment
-        globals.addNewVariable("clock", new LoxCallable() {
-            @Override
-            public int arity() {
-                return 0;
-            }
+        defineNative("clock", 0, (i, args) -> 
+            (double) System.currentTimeMillis() / 1000.0); // seconds since Unix Epoch
+
+        LoxMap.defineNatives(this);
+        LoxString.defineNatives(this);
+        LoxFiber.defineNatives(this);
+        LoxChannel.defineNatives(this);
+        LoxList.defineNatives(this);
+        LoxParallel.defineNatives(this);
+        // scripts can only read files if whoever made the isolate said so
+        if (fileAccess) LoxFile.defineNatives(this);
+    }
+
+    // see fork()
+    private Interpreter(Interpreter parent) {
+        reporter = parent.reporter;
+        out = parent.out;
+        concurrency = parent.concurrency;
+        budget = parent.budget;
+        allocations = parent.allocations;
+        profiler = parent.profiler;
+        if (profiler != null) profiler.register(callStack, false);
+        fibers = parent.fibers;
+        globals = parent.globals;
+        currentEnv = globals;
+        // so the bottom of a fiber's error trace points at the spawn() that started it
+        callLine = parent.callLine;
+    }
+
+    // makes a new execution context for running Lox code on another thread (like a fiber from spawn()).
+    // It shares the globals, error reporter and output with this one, but has its own currentEnv,
+    // so the two can run functions at the same time without stepping on each other's scopes
+    Interpreter fork() {
+        return new Interpreter(this);
+    }
+
+    // LoxIsolate gives every run a fresh budget (and allocation limit)
+    void startRun(ExecutionBudget budget) {
+        this.budget = budget;
+        stepsUntilCheck = 0;
+        allocationCredit = 0;
+    }
+
+    // called on every loop iteration and function call. Almost always this is just a decrement,
+    // see ExecutionBudget for how the limits get checked
+    void tick(Token where) {
+        if (--stepsUntilCheck < 0) {
+            stepsUntilCheck = budget.take(where) - 1;
+        }
+    }
 
-            @Override
-            public Object call(Interpreter i, List<Object> args) {
-                return (double) System.currentTimeMillis() / 1000.0; // seconds since Unix Epoch
-            }
+    // called wherever Lox code makes something new, with roughly how many bytes it takes.
+    // where is the token to blame if this goes over the limit, null inside natives and calls
+    void allocate(AllocationTracker.Kind kind, long bytes, Token where) {
+        if (allocations == null) return;
+        allocations.record(kind, bytes);
+        allocationCredit -= bytes;
+        if (allocationCredit < 0) {
+            allocationCredit += allocations.reserve(-allocationCredit, where);
+        }
+    }
 
-            @Override
-            public String toString() {
-                return "<native function \"clock\">";
-            }
-        });
+    // fibers and parallel workers call this when their forked interpreter is done. Gives back
+    // the steps and allocation credit it took but didn't use, so every fork doesn't cost a whole chunk
+    void finishFork() {
+        flushMetrics();
+        budget.giveBack(stepsUntilCheck);
+        stepsUntilCheck = 0;
+        if (allocations != null) allocations.release(allocationCredit);
+        allocationCredit = 0;
+    }
+
+    // adds what this interpreter counted to the engine metrics. LoxIsolate calls this after every
+    // run, and finishFork when a forked interpreter is done
+    void flushMetrics() {
+        LoxMetrics.ENGINE.executed(callCount, instanceCount);
+        callCount = 0;
+        instanceCount = 0;
+    }
+
+    // writes out what the script printed so far, for the debugger to show before it stops
+    void flushOutput() {
+        out.flush();
+    }
+
+    void reportRuntimeError(RuntimeError e) {
+        // anything printed before the error should show up before it
+        out.flush();
+        reporter.runtimeError(e);
+        LoxEvents.runtimeError(e);
+        if (!e.counted) LoxMetrics.ENGINE.runtimeError();
+    }
+
+    // put a java implemented function into the global environment under this name
+    void defineNative(String name, int arity, NativeFunction.Body body) {
+        globals.addNewVariable(name, new NativeFunction(name, arity, body));
     }
 
     // evaluate calls accept, which then depending on which expression e is,
@@ -69,19 +220,23 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
     // this is like evaluate but for statements! An expression is like 3+4, a statement is like
     // 3+4; for example. We need this because we otherwise wouldn't have an way to call
     // accept (aka actually do the visitor pattern) with for statements
-    private void execute(Statement s) {
-        s.accept(this);
+    // returns the statement's completion (null, BREAK, a Return or a TailCall)
+    private Object execute(Statement s) {
+        return s.accept(this);
     }
 
-    public void executeBlock(List<Statement> codeBlock, Environment env) {
+    // runs the statements until one of them doesn't finish normally, and returns that completion
+    public Object executeBlock(List<Statement> codeBlock, Environment env) {
         // use a try/finally to ensure that the old environment is restored, no matter
         // whether a exception is thrown from the execute() or not
         Environment oldEnv = currentEnv;
         try {
             currentEnv = env;
             for (Statement codeLine : codeBlock) {
-                execute(codeLine);
+                Object completion = execute(codeLine);
+                if (completion != null) return completion;
             }
+            return null;
         }
         finally {
             currentEnv = oldEnv;
@@ -97,41 +252,36 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
             }
         }
         catch (RuntimeError e) {
-            Lox.error(e);
+            reportRuntimeError(e);
         }
     }
 
-    // for the resolver. This is called by the Resolver.resolveLocal function to tell interpreter
-    // which local variables corresponds to which other variables
-    public void resolve(Expression exp, int numberOfScopes) {
-        locals.put(exp, numberOfScopes);
-    }
-
     // ================================= Start Statement Visits ========================= //
     
     // this is something like "3+4;" and in that case we just evaluate it and move on. 
     // Nothing special actually happens
     @Override
-    public Void visitExpressionStatementStatement(Statement.ExpressionStatement statement) {
-        stringify(evaluate(statement.expression));
+    public Object visitExpressionStatementStatement(Statement.ExpressionStatement statement) {
+        // the value is thrown away, so don't stringify it (that would flatten string ropes for nothing)
+        evaluate(statement.expression);
 
-        // return null to satisfy Void
+        // null means this statement finished normally
         return null;
     }
 
     // this should Print in java
     @Override
-	public Void visitPrintStatementStatement(Statement.PrintStatement statement) {
+	public Object visitPrintStatementStatement(Statement.PrintStatement statement) {
         Object val = evaluate(statement.expression);
 
         // we should stringify first just like we did in interpret()
-        System.out.println(stringify(val));
+        out.println(stringify(val));
         return null;
     }
 
     // this should set the variable using Environment.addNewVariable
     @Override
-    public Void visitVariableDeclarationStatement(Statement.VariableDeclaration statement) {
+    public Object visitVariableDeclarationStatement(Statement.VariableDeclaration statement) {
         // value of variable
         Object value = null;
 
@@ -140,6 +290,7 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
             value = evaluate(statement.initializer);
         }
         
+        allocate(AllocationTracker.Kind.VARIABLE, AllocationTracker.ENTRY_BYTES, statement.name);
         currentEnv.addNewVariable(statement.name.lexeme, value);
         return null;
     }
@@ -147,28 +298,29 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
     // this represents a new block { }, wherein we must create a new Environment to store
     // the variables in this scope.
     @Override
-    public Void visitBlockStatementStatement(Statement.BlockStatement statement) {
+    public Object visitBlockStatementStatement(Statement.BlockStatement statement) {
         // create a new env
+        allocate(AllocationTracker.Kind.FRAME, AllocationTracker.FRAME_BYTES, statement.brace);
         Environment blockEnv = new Environment(this.currentEnv);
 
-        executeBlock(statement.statements, blockEnv);
-        return null;
+        // pass on a break or return from inside the block
+        return executeBlock(statement.statements, blockEnv);
     }
 
     // this represents an if statement. We evaluate the condition and then execute certain code
     // depending on the result of that condition evaluation
     @Override
-    public Void visitIfStatementStatement(Statement.IfStatement statement) {
+    public Object visitIfStatementStatement(Statement.IfStatement statement) {
         // evaluate the condition
         Object condition = evaluate(statement.condition);
         if (isTruthy(condition)) {
             // then execute all the statements in the if block
-            execute(statement.ifCode);
+            return execute(statement.ifCode);
         }
         else {
             // so if false, check to see if there's an else
             if (statement.elseCode != null) {
-                execute(statement.elseCode);
+                return execute(statement.elseCode);
             }
         }
         // reaches here if if-statement was false and there's no else statement
@@ -177,30 +329,42 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
 
     // when we visit a while statement, we should evaluate the condition as long as its true
     @Override
-    public Void visitWhileStatementStatement(Statement.WhileStatement statement) {
+    public Object visitWhileStatementStatement(Statement.WhileStatement statement) {
         while (isTruthy(evaluate(statement.condition))) {
+            // the back edge of the loop, this is what stops a while (true) that would never end
+            tick(statement.keyword);
+
             // then execute all the statements in the if block
-            // also if any break statements occur then they will throw a BreakException
-            // we can then put a try catch here to immediately terminate the loop if such an exception occurs
-            try {
-                execute(statement.code);
-            }
-            catch (BreakException b) {
-                return null;
-            }
+            // a break inside the body ends this loop, a return has to keep going up to the function
+            Object completion = execute(statement.code);
+            if (completion == BREAK) return null;
+            if (completion != null) return completion;
         }
         return null;
     }
 
-    // when visiting a break, we throw an exception immediately to exit the loop that we're in
-    public Void visitBreakStatementStatement(Statement.BreakStatement statement) {
-        throw new BreakException();
+    // when visiting a break, hand back BREAK so every statement stops until we get to the loop that we're in
+    public Object visitBreakStatementStatement(Statement.BreakStatement statement) {
+        return BREAK;
+    }
+
+    // nothing to do here, LoxIsolate already ran every imported file before this script started
+    @Override
+    public Object visitImportStatementStatement(Statement.ImportStatement statement) {
+        return null;
+    }
+
+    // a hook some tool put into its copy of the tree, its probe runs the statement (see Probe)
+    @Override
+    public Object visitHookStatement(Statement.Hook statement) {
+        return statement.probe.statement(this, statement.statement);
     }
 
     // declaring a function with its definition.
-    public Void visitFunctionStatementStatement(Statement.FunctionStatement statement) {
+    public Object visitFunctionStatementStatement(Statement.FunctionStatement statement) {
 
         // set it to be the closure of the function (also pass the funcstatement in)
+        allocate(AllocationTracker.Kind.FUNCTION, AllocationTracker.FUNCTION_BYTES, statement.funcName);
         LoxFunction lf = new LoxFunction(statement, currentEnv, false);
 
         // define the function object itself into current environment
@@ -208,14 +372,27 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
         return null;
     }
 
-    public Void visitReturnStatementStatement(Statement.ReturnStatement statement) {
+    public Object visitReturnStatementStatement(Statement.ReturnStatement statement) {
+        if (statement.isTailCall) {
+            // the Resolver already checked that this is "return f(...)"
+            Expression.Call call = (Expression.Call) statement.exp;
+            Object[] args = evaluateArguments(call);
+            LoxCallable function = checkCallee(call, evaluate(call.callee), args.length);
+
+            // Lox functions get trampolined by LoxFunction.call, natives and classes are just called
+            if (function instanceof LoxFunction) {
+                return new TailCall((LoxFunction) function, args);
+            }
+            return new Return(invoke(call, function, args));
+        }
+
         Object returnValue = null;
         if (statement.exp != null) returnValue = evaluate(statement.exp);
-        throw new ReturnException(returnValue);
+        return new Return(returnValue);
     }
 
     @Override
-    public Void visitClassDeclarationStatement(ClassDeclaration statement) {
+    public Object visitClassDeclarationStatement(ClassDeclaration statement) {
         
         // first define the class to be null
         currentEnv.addNewVariable(statement.nameOfClass.lexeme, null);
@@ -240,6 +417,7 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
         for (Statement.FunctionStatement f : statement.methods) {
             // is the function a constructor?
             Boolean isConstructor = f.funcName.lexeme.equals("init");
+            allocate(AllocationTracker.Kind.FUNCTION, AllocationTracker.FUNCTION_BYTES, f.funcName);
             LoxFunction lf = new LoxFunction(f, currentEnv, isConstructor);
             methods.put(f.funcName.lexeme, lf);
         }
@@ -269,15 +447,14 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
                 verifyNumericalValues(expression.operator, left_exp_val, right_exp_val);
                 return (double) left_exp_val - (double) right_exp_val;
             case PLUS:
-                // support string concatenation in Lox
-                if (left_exp_val instanceof String || right_exp_val instanceof String) {
-                    if (left_exp_val instanceof Double) {
-                        left_exp_val = stringify(left_exp_val);
-                    }
-                    if (right_exp_val instanceof Double) {
-                        right_exp_val = stringify(right_exp_val);
-                    }
-                    return (String) left_exp_val + (String) right_exp_val;
+                // support string concatenation in Lox. This doesn't copy, LoxString.concat builds a rope
+                if (left_exp_val instanceof LoxString || right_exp_val instanceof LoxString) {
+                    LoxString result = LoxString.concat(toLoxString(expression.operator, left_exp_val), 
+                    toLoxString(expression.operator, right_exp_val));
+                    // a short result gets copied into a new flat string, a long one is just a rope node
+                    allocate(AllocationTracker.Kind.STRING, result.isFlat() ?
+                        AllocationTracker.STRING_BYTES + result.length() : AllocationTracker.ROPE_BYTES, expression.operator);
+                    return StringTable.runtime(result);
                 }
                 verifyNumericalValues(expression.operator, left_exp_val, right_exp_val);
                 return (double) left_exp_val + (double) right_exp_val;
@@ -321,7 +498,7 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
     }
 
     // a literal evaluates to itself. For example, 3 in Lox is just 3 in java
-    // or "hello" is just "hello" in java
+    // or "hello" is just the LoxString "hello" that the Scanner made
     @Override
     public Object visitLiteralExpression(Expression.Literal expression) {
         return expression.value;
@@ -347,14 +524,10 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
         return null;
     }
 
-    private Object lookupVariable(Expression expression, Token name) {
-        // lookup the variable in the resolver map
-        // dist is the number of scopes up that we need to travel
-        Integer dist = locals.get(expression);
-        if (dist == null) {
-            // System.out.println("Variable " + expression + " is global");
-
-            // if dist is null then that means it wasn't resolved 
+    private Object lookupVariable(int dist, Token name) {
+        // dist is the number of scopes up that we need to travel, the Resolver put it in the node
+        if (dist < 0) {
+            // if dist is -1 then that means it wasn't resolved 
             // which means that variable is in globals
             return globals.getVariableValue(name);
         }
@@ -367,16 +540,16 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
     // assuming "var x = 3" was ran before this, then doing "x;" a line later should return 3
     @Override
     public Object visitVariableExpression(Expression.Variable expression) {
-        return lookupVariable(expression, expression.name);
+        return lookupVariable(expression.depth, expression.name);
     }
 
     // something like "x=3;" returns 3 believe it or not
     @Override
     public Object visitAssignmentExpression(Expression.Assignment expression) {
         Object rhs = evaluate(expression.value);
-        Integer dist = locals.get(expression);
+        int dist = expression.depth;
 
-        if (dist == null) {
+        if (dist < 0) {
             // global variable
             globals.changeExistingVariable(expression.name, rhs);
         }
@@ -414,18 +587,29 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
 
     // calling a function!
     public Object visitCallExpression(Expression.Call expression) {
-        List<Expression> args = expression.args;
-
-        // evaluate each paramter!
-        List<Object> argsEvaluated = new ArrayList<>();
-        for (Expression e : args) {
-            Object o = evaluate(e);
-            argsEvaluated.add(o);
-        }
+        Object[] args = evaluateArguments(expression);
 
         // evaluate the callee, also known as the name of the function
         Object callee = evaluate(expression.callee);
 
+        LoxCallable function = checkCallee(expression, callee, args.length);
+        return invoke(expression, function, args);
+    }
+
+    // evaluate each paramter! These go straight into an array of exactly the right size,
+    // which is what LoxCallable.call takes
+    private Object[] evaluateArguments(Expression.Call expression) {
+        List<Expression> args = expression.args;
+        int argCount = args.size();
+
+        Object[] argsEvaluated = argCount == 0 ? NO_ARGS : new Object[argCount];
+        for (int j = 0; j < argCount; j++) {
+            argsEvaluated[j] = evaluate(args.get(j));
+        }
+        return argsEvaluated;
+    }
+
+    private LoxCallable checkCallee(Expression.Call expression, Object callee, int argCount) {
         // cast it to a LoxCallable (but first check that it is an actual function we defined already in Lox)
         if (!(callee instanceof LoxCallable)) {
             throw new RuntimeError(expression.closingParenthesis, "Callee is not valid function name");
@@ -433,13 +617,26 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
 
         LoxCallable function = (LoxCallable) callee;
 
-        // make sure the number of arguments are the same, if not throw runtime error
-        if (args.size() != function.arity()) {
+        // make sure the number of arguments are the same, if not throw runtime error.
+        // this is the only arity check, the callee trusts that args has the right length
+        if (argCount != function.arity()) {
             throw new RuntimeError(expression.closingParenthesis, "Number of arguments must be " + 
-            function.arity() + " but got " + args.size() + " arguments instead");
+            function.arity() + " but got " + argCount + " arguments instead");
         }
+        return function;
+    }
 
-        return function.call(this, argsEvaluated);
+    private Object invoke(Expression.Call expression, LoxCallable function, Object[] args) {
+        callLine = expression.closingParenthesis.line;
+        try {
+            return function.call(this, args);
+        }
+        catch (NativeFunction.NativeError e) {
+            // a native got bad arguments, blame this call
+            RuntimeError error = new RuntimeError(expression.closingParenthesis, e.getMessage());
+            error.counted = e.counted;
+            throw error;
+        }
     }
 
     // something like class.method
@@ -467,13 +664,58 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
             LoxInstance instance = (LoxInstance) lhs;
             Object newValue = evaluate(expression.value);
             // get the desired LoxFunction
-            instance.setField(expression.name, newValue);
+            if (instance.setField(expression.name, newValue)) {
+                allocate(AllocationTracker.Kind.FIELD, AllocationTracker.ENTRY_BYTES, expression.name);
+            }
             return newValue;
         }
 
         throw new RuntimeError(expression.name, "Must set member on instance of a class");
     }
 
+    // map[key] or list[index]. A missing map key gives back nil, a bad list index is an error
+    @Override
+    public Object visitGetIndexExpression(GetIndex expression) {
+        Object lhs = evaluate(expression.object);
+        Object index = evaluate(expression.index);
+
+        if (lhs instanceof LoxMap) {
+            return ((LoxMap) lhs).get(checkMapKey(expression.bracket, index));
+        }
+        if (lhs instanceof LoxList) {
+            LoxList list = (LoxList) lhs;
+            return list.get(checkListIndex(expression.bracket, list, index));
+        }
+
+        throw new RuntimeError(expression.bracket, "Can only index into a map or a list");
+    }
+
+    // map[key] = value or list[index] = value. Like Set, this returns value
+    @Override
+    public Object visitSetIndexExpression(SetIndex expression) {
+        Object lhs = evaluate(expression.object);
+        if (lhs instanceof LoxMap) {
+            Object index = checkMapKey(expression.bracket, evaluate(expression.index));
+            Object newValue = evaluate(expression.value);
+            LoxMap map = (LoxMap) lhs;
+            int sizeBefore = map.size();
+            map.put(index, newValue);
+            if (map.size() != sizeBefore) {
+                allocate(AllocationTracker.Kind.COLLECTION, AllocationTracker.MAP_ENTRY_BYTES, expression.bracket);
+            }
+            return newValue;
+        }
+        if (lhs instanceof LoxList) {
+            LoxList list = (LoxList) lhs;
+            int index = checkListIndex(expression.bracket, list, evaluate(expression.index));
+            Object newValue = evaluate(expression.value);
+            list.set(index, newValue);
+            return newValue;
+        }
+
+        throw new RuntimeError(expression.bracket, "Can only index into a map or a list");
+    }
+
     // the way we've done it, "this" is an actual symbol in the environment
     // so just do lookupVariable, like we would any other variable name.
     // to see how its implemented, checkout LoxInstance.getField() and how we use bind()
@@ -482,13 +724,13 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
     @Override
     public Object visitThisExpression(This expression) {
         // this should return the LoxInstance 
-        return lookupVariable(expression, expression.keyword);
+        return lookupVariable(expression.depth, expression.keyword);
     }
 
     @Override
     public Object visitSuperExpression(Super expression) {
         // get distance to superclass
-        Integer dist = locals.get(expression);
+        int dist = expression.depth;
 
         // get the actual superclass
         LoxClass superClass = (LoxClass) currentEnv.getAt("super", dist);
@@ -508,8 +750,33 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
 
     }
 
+    @Override
+    public Object visitHookExpression(Expression.Hook expression) {
+        return expression.probe.expression(this, expression.expression);
+    }
+
     // ================================= End Expression Visits ========================= //
 
+    // nil can't be a map key, since m[key] returning nil already means "not there"
+    private Object checkMapKey(Token bracket, Object key) {
+        if (key == null) {
+            throw new RuntimeError(bracket, "Map key cannot be nil");
+        }
+        return key;
+    }
+
+    // list indexes have to be whole numbers that point at an element that exists
+    private int checkListIndex(Token bracket, LoxList list, Object index) {
+        if (!(index instanceof Double)) {
+            throw new RuntimeError(bracket, "List index must be a number");
+        }
+        double d = (double) index;
+        if (d != Math.floor(d) || d < 0 || d >= list.size()) {
+            throw new RuntimeError(bracket, "List index " + stringify(index) + " is out of range");
+        }
+        return (int) d;
+    }
+
     // this prevents stuff like -"horse" or 3 + "cow"
     // also note this is a void function because it throws an exception
     private void verifyNumericalValues(Token operator, Object... values) {
@@ -521,6 +788,13 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
         }
     }
 
+    // for "a" + 3, numbers get turned into strings. Anything else can't be concatenated
+    private LoxString toLoxString(Token operator, Object value) {
+        if (value instanceof LoxString) return (LoxString) value;
+        if (value instanceof Double) return new LoxString(stringify(value));
+        throw new RuntimeError(operator, "Can only concatenate strings and numbers");
+    }
+
     // this determines the notion of equality in Lox
     // we will use java's .equals() method on most primitive classes to 
     // determine this behavior
@@ -531,6 +805,9 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
 
         // cant call .equals on a null
         if (left == null) return false;
+
+        // same object, this is the common case for interned strings (see StringTable)
+        if (left == right) return true;
         return left.equals(right);
     }
 
@@ -549,7 +826,7 @@ public class Interpreter implements Expression.Visitor<Object>, Statement.Visito
     // also making sure there's no .0 at the end for integers
     // since in Lox we're representing all numbers as doubles, integers will 
     // appears as 3.0 for example, and we don't want to output that. We want "3"
-    private String stringify(Object object) {
+    String stringify(Object object) {
         if (object == null) return "nil";
         if (object instanceof Double) {
             String text = object.toString();
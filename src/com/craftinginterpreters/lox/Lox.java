@@ -6,28 +6,52 @@ package com.craftinginterpreters.lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.util.List;
 
 
 public class Lox {
-    // sets to true if we have error during lexing or parsing
-    static boolean hadError = false;
-
-    // sets to true if we have error during runtime
-    static boolean hadRuntimeError = false;
-
-    // an interpreter. It has no stuff to initialize in a constructor which is why we can do this
-    static final Interpreter interpreter = new Interpreter();
+    // the command line only ever runs one script at a time, so it just uses one isolate.
+    // programs that embed Lox should make their own LoxIsolates instead.
+    // Scripts can use fibers by default, -Dlox.concurrency=single_threaded turns that off
+    // (and the cost of thread safe globals and fields along with it).
+    // -Dlox.outputBuffer=<chars> sets how much printed output gets collected before it's written, 0 for none.
+    // Scripts can read files (readFile, readLines, openFile) unless -Dlox.fileAccess=false.
+    // -Dlox.maxSteps=<steps> and -Dlox.timeoutMillis=<ms> stop scripts that run for too long.
+    // -Dlox.allocationLimit=<bytes> stops scripts that allocate too much, and
+    // -Dlox.allocationReport=true prints what the script allocated when it's done.
+    // -Dlox.profile=<file> samples the script's Lox call stacks and writes them to file for a flame graph.
+    // -Dlox.hotspots=<n> counts and times every line and function, and prints the n slowest of each at the end.
+    // -Dlox.jmx=true publishes the engine metrics over JMX, see LoxMetrics.
+    // -Dlox.trace=<file> keeps a trace of the last statements that ran and writes it to file if the
+    // script fails, java com.craftinginterpreters.tools.PrintTrace <file> reads it.
+    // -Dlox.debug=true stops before the first line of a script file and takes debugger commands
+    // on stdin, see DebuggerConsole
+    private static final DebuggerConsole debugConsole =
+        Boolean.getBoolean("lox.debug") ? new DebuggerConsole(System.in, System.err) : null;
+    private static final LoxDebugger debugger = debugConsole != null ? new LoxDebugger(debugConsole) : null;
+
+    // made in main, so that options the builder turns down get a usage message instead of a stack trace
+    private static LoxIsolate isolate;
 
     public static void main(String[] args) throws IOException {
+        if (Boolean.getBoolean("lox.jmx")) LoxMetrics.registerMBean();
+
         if (args.length > 1) {
             System.out.println("Usage: jlox [script]");
             System.exit(64);
         }
-        else if (args.length == 1) {
+
+        try {
+            isolate = buildIsolate();
+        }
+        catch (IllegalArgumentException | IllegalStateException e) {
+            System.out.println(e.getMessage());
+            System.out.println("Usage: jlox [script]");
+            System.exit(64);
+        }
+
+        if (args.length == 1) {
             // if src file provided
             runFile(args[0]);
         }
@@ -37,15 +61,47 @@ public class Lox {
         }
     }
 
+    private static LoxIsolate buildIsolate() {
+        return new LoxIsolate.Builder()
+            .concurrency(concurrency())
+            .outputBufferSize(Integer.getInteger("lox.outputBuffer", OutputSink.DEFAULT_BUFFER_SIZE))
+            .fileAccess(Boolean.parseBoolean(System.getProperty("lox.fileAccess", "true")))
+            .maxSteps(Long.getLong("lox.maxSteps", 0))
+            .timeoutMillis(Long.getLong("lox.timeoutMillis", 0))
+            .allocationLimit(Long.getLong("lox.allocationLimit", 0))
+            .trackAllocations(Boolean.getBoolean("lox.allocationReport"))
+            .profile(System.getProperty("lox.profile") != null ? LoxProfiler.DEFAULT_INTERVAL_MICROS : 0)
+            .instrument(Integer.getInteger("lox.hotspots", 0) > 0)
+            .traceDumpOnError(System.getProperty("lox.trace") != null ? Paths.get(System.getProperty("lox.trace")) : null)
+            .debugger(debugger)
+            .build();
+    }
+
+    // valueOf's own message for a typo is "No enum constant ..."
+    private static LoxIsolate.Concurrency concurrency() {
+        String name = System.getProperty("lox.concurrency", "concurrent");
+        try {
+            return LoxIsolate.Concurrency.valueOf(name.toUpperCase());
+        }
+        catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("lox.concurrency has to be concurrent or single_threaded, not " + name);
+        }
+    }
+
     private static void runFile(String filepath) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(filepath));
-        // create a String from the byte array
-        run(new String(bytes, Charset.defaultCharset()));
-        // System.out.println("The current charset is: " + Charset.defaultCharset().displayName());
+        if (debugConsole != null) {
+            debugConsole.setSource(Files.readAllLines(Paths.get(filepath)));
+            debugger.pauseAtStart();
+        }
+
+        // imports in the file are relative to the file's own directory
+        int status = isolate.runFile(Paths.get(filepath));
+        printAllocationReport();
+        writeProfile();
+        printHotSpots();
         
         // if error parsing or lexing, or during runtime, exit the lox program
-        if (hadError) System.exit(65);
-        if (hadRuntimeError) System.exit(70);
+        if (status != LoxIsolate.OK) System.exit(status);
     }
 
     private static void runPrompt() throws IOException {
@@ -59,79 +115,30 @@ public class Lox {
             if (line == null) {
                 break;
             }
-            run(line);
-            // Error flag exists for each run of the program, and in the interpreter 
-            // we rerun the program each time we press enter
-            hadError = false;
+            // Error flags exist for each run of the program, and in the interpreter 
+            // we rerun the program each time we press enter (the isolate resets them for us)
+            isolate.run(line);
         }
+        printAllocationReport();
+        writeProfile();
+        printHotSpots();
     }
 
-    // THIS IS THE MAIN LOOP, VERY IMPORTANT
-    private static void run(String input_string) {
-        // pass each line to the scanner to be lexed
-        Scanner scanner = new Scanner(input_string);
-        List<Token> tokens = scanner.scanTokens();
-
-        // for (Token t : tokens) {
-        //     System.out.println(t);
-        // }
-
-        // pass list of tokens to parser
-        Parser parser = new Parser(tokens);
-        List<Statement> statements = parser.parse();
-
-        // if there was an error on this line, don't print
-        if (hadError) return;
-
-        // print out the abstract syntax tree that the parser sees
-        // System.out.println(new AstPrinter().print(statements));
-
-        // run resolver (populates locals hashmap in Interpreter)
-        Resolver r = new Resolver(interpreter);
-        r.resolve(statements);
-
-        // check for resolver errors, if there are any, don't interpret
-        if (hadError) return;
-
-        // try to evaluate the syntax tree
-        interpreter.interpret(statements);
-
-        // check for runtime errors
-        if (hadRuntimeError) return;
-
-        // System.out.println(result);
+    private static void printHotSpots() {
+        String report = isolate.getHotSpotReport(Integer.getInteger("lox.hotspots", 0));
+        if (report != null) System.err.print(report);
     }
 
-    // ===================================== ERROR HANDLERS BEGIN ====================+===== //
-    
-    // note that this doesn't actually stop the program, it just prints error message instead
-    // called from Scanner.java
-    static void error(int line, String message) {
-        reportError(line, "", message);
+    private static void writeProfile() throws IOException {
+        String path = System.getProperty("lox.profile");
+        if (path != null) isolate.writeProfile(Paths.get(path));
     }
 
-    // another interface for error reporting, where we pass along a erroring Token instead
-    // called from Parser.java
-    static void error(Token t, String message) {
-        if (t.type == TokenType.EOF) {
-            reportError(t.line, " at end of file", message);
-        }
-        else {
-            reportError(t.line, " at '" + t.lexeme + "'", message);
+    // only if -Dlox.allocationReport=true (or an allocation limit) turned tracking on
+    private static void printAllocationReport() {
+        String report = isolate.getAllocationReport();
+        if (report != null && Boolean.getBoolean("lox.allocationReport")) {
+            System.err.print(report);
         }
     }
-
-    // called from Interpreter.java (runtime)
-    static void error(RuntimeError r) {
-        hadRuntimeError = true;
-        System.err.println("[line " + r.token.line + "] token " + 
-        r.token.lexeme + ": " + r.getMessage());
-    }
-
-    private static void reportError(int line, String where, String message) {
-        System.err.println("[line " + line + "] Error" + where + ": " + message);
-        hadError = true;
-    }
-
-    // ===================================== ERROR HANDLERS END ============================ //
-}
\ No newline at end of file
+}
@@ -1,13 +1,12 @@
 package com.craftinginterpreters.lox;
 
-import java.util.List;
-
 // a callable interface
 interface LoxCallable {
 
     int arity();
 
-    Object call(Interpreter i, List<Object> args);
+    // args is sized exactly to arity(), the caller (Interpreter.visitCallExpression) has already checked that
+    Object call(Interpreter i, Object[] args);
 
     String toString();
 }
@@ -0,0 +1,129 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A channel is how fibers hand values to each other, made with Channel(capacity).
+ * channelSend waits while the channel is full and channelReceive waits while it's empty.
+ * After channelClose, sends fail and receives get back whatever is left, then nil.
+ *
+ * This uses a ReentrantLock instead of synchronized because a virtual thread that blocks inside
+ * synchronized holds on to its carrier thread, and fibers spend most of their time blocked in here.
+ */
+public class LoxChannel {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    // a circular buffer of the values waiting to be received
+    private final Object[] buffer;
+    private int head = 0;
+    private int count = 0;
+
+    private boolean closed = false;
+
+    private LoxChannel(int capacity) {
+        buffer = new Object[capacity];
+    }
+
+    @Override
+    public String toString() {
+        return "<channel>";
+    }
+
+    void send(Object value) throws InterruptedException {
+        lock.lock();
+        try {
+            while (count == buffer.length && !closed) {
+                notFull.await();
+            }
+            if (closed) {
+                throw new NativeFunction.NativeError("Can't send on a closed channel");
+            }
+            buffer[(head + count) % buffer.length] = value;
+            count++;
+            notEmpty.signal();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    // returns nil once the channel is closed and empty
+    Object receive() throws InterruptedException {
+        lock.lock();
+        try {
+            while (count == 0 && !closed) {
+                notEmpty.await();
+            }
+            if (count == 0) return null;
+
+            Object value = buffer[head];
+            buffer[head] = null;
+            head = (head + 1) % buffer.length;
+            count--;
+            notFull.signal();
+            return value;
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            // wake everyone up so they can see it's closed
+            notEmpty.signalAll();
+            notFull.signalAll();
+        }
+        finally {
+            lock.unlock();
+        }
+    }
+
+    // called from the Interpreter constructor to put the channel functions into globals
+    static void defineNatives(Interpreter interpreter) {
+        interpreter.defineNative("Channel", 1, (i, args) -> {
+            if (!(args[0] instanceof Double) || (double) args[0] < 1 || (double) args[0] != Math.floor((double) args[0])) {
+                throw new NativeFunction.NativeError("Channel expects a whole number capacity of at least 1");
+            }
+            return new LoxChannel((int) (double) args[0]);
+        });
+
+        interpreter.defineNative("channelSend", 2, (i, args) -> {
+            try {
+                asChannel("channelSend", args[0]).send(args[1]);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new NativeFunction.NativeError("Interrupted while sending on a channel");
+            }
+            return null;
+        });
+
+        interpreter.defineNative("channelReceive", 1, (i, args) -> {
+            try {
+                return asChannel("channelReceive", args[0]).receive();
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new NativeFunction.NativeError("Interrupted while receiving from a channel");
+            }
+        });
+
+        interpreter.defineNative("channelClose", 1, (i, args) -> {
+            asChannel("channelClose", args[0]).close();
+            return null;
+        });
+    }
+
+    private static LoxChannel asChannel(String nativeName, Object o) {
+        if (!(o instanceof LoxChannel)) {
+            throw new NativeFunction.NativeError(nativeName + " expects a channel as its first argument");
+        }
+        return (LoxChannel) o;
+    }
+}
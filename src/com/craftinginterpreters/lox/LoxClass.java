@@ -1,6 +1,5 @@
 package com.craftinginterpreters.lox;
 
-import java.util.List;
 import java.util.Map;
 
 import com.craftinginterpreters.lox.Statement.FunctionStatement;
@@ -11,10 +10,15 @@ public class LoxClass implements LoxCallable {
     private String nameOfClass;
     private LoxClass superclass;
 
+    // the constructor (possibly inherited), or null. Methods can't change after the class is made,
+    // so we look it up once here instead of on every arity() check and every call()
+    private final LoxFunction initializer;
+
     LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods) {
         nameOfClass = name;
         this.methods = methods;
         this.superclass = superclass;
+        initializer = findMethod("init");
     }
 
     @Override
@@ -26,7 +30,6 @@ public class LoxClass implements LoxCallable {
     @Override
     public int arity() {
         // the arity of a class is how many arguments its constructor has
-        LoxFunction initializer = findMethod("init");
         if (initializer != null) {
             return initializer.arity();
         }
@@ -35,13 +38,15 @@ public class LoxClass implements LoxCallable {
     }
 
     @Override
-    public Object call(Interpreter i, List<Object> args) {
+    public Object call(Interpreter i, Object[] args) {
         // calling a class = creating an instance of the object with these args (at least in Lox)
         // this will get called by visitCallExpression in Interpreter.java!
-        LoxInstance instance = new LoxInstance(this);
+        i.allocate(AllocationTracker.Kind.INSTANCE, AllocationTracker.INSTANCE_BYTES, null);
+        LoxEvents.Instantiation event = LoxEvents.startInstantiation();
+        LoxInstance instance = new LoxInstance(this, i.concurrency);
+        i.instanceCount++;
 
         // check whether there's a constructor on the class, if so, 
-        LoxFunction initializer = findMethod("init");
         if (initializer != null) {
             // then bind and run it. I think we need to bind because if you look at 
             // LoxInstance.getField, the only other instance where bind is being called,
@@ -49,6 +54,8 @@ public class LoxClass implements LoxCallable {
             // its like we're gonna run, therefore to stay consistent with getField we need to bind too.
             initializer.bind(instance).call(i, args);
         }
+
+        LoxEvents.endInstantiation(event, nameOfClass);
         return instance;
     }
 
@@ -0,0 +1,347 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+/**
+ * A line based debugger for Lox code: breakpoints, stepping into, over and out of functions, and
+ * looking at the variables in scope. Give one to LoxIsolate.Builder.debugger() and set some
+ * breakpoints. Whenever the script stops, the Listener gets called on the thread running the
+ * script and says how to carry on. DebuggerConsole is a Listener that asks on stdin.
+ *
+ * A debugged isolate runs a copy of each script (see TreeRewriter) where the debugger knows the
+ * spot every statement sits in. When a breakpoint gets set, the statements on that line are
+ * swapped out for a hook (a Statement.Hook with a Stop probe) that stops before running them, and
+ * swapped back when it's removed.
+ * While stepping, every statement gets a hook until the script stops again. So with no
+ * breakpoints and no stepping, the copy runs just like the original tree.
+ *
+ * The bodies of ifs and whiles that aren't blocks aren't in a list, so they get a Slot that the
+ * hook can be swapped into. That's the only thing a debugged script pays when it isn't stopping.
+ *
+ * Each script is only copied once, so running it again (or in another isolate with the same
+ * debugger) reuses the copy and its hooks. The copies are dropped along with their scripts.
+ *
+ * Fibers hit hooks too, but only one thread is stopped in the debugger at a time.
+ */
+public class LoxDebugger {
+    public enum Command {
+        CONTINUE, STEP_INTO, STEP_OVER, STEP_OUT
+    }
+
+    public interface Listener {
+        // the script is stopped before running the statement at where. Returns how to go on
+        Command paused(LoxDebugger debugger, Pause where);
+    }
+
+    // where a script is stopped, only good until the listener returns
+    public static class Pause {
+        private final Location location;
+        private final Interpreter interpreter;
+
+        private Pause(Location location, Interpreter interpreter) {
+            this.location = location;
+            this.interpreter = interpreter;
+        }
+
+        public int getLine() {
+            return location.line;
+        }
+
+        // the imported file the statement is in, or null for the script itself
+        public String getFile() {
+            return location.file;
+        }
+
+        // the kind of statement about to run, like PrintStatement
+        public String getStatementKind() {
+            return location.original.getClass().getSimpleName();
+        }
+
+        // the Lox functions the script is in, innermost first (with name:line of their declaration)
+        public List<String> getCallStack() {
+            List<String> frames = new ArrayList<>();
+            for (LoxFunction function : interpreter.callStack.snapshot()) {
+                if (function == null) continue;
+                frames.add(function.name().lexeme + ":" + function.name().line);
+            }
+            Collections.reverse(frames);
+            return frames;
+        }
+
+        // the variables in every scope from the innermost one out to the globals, as the
+        // strings print would show. The globals include the native functions
+        public List<Map<String, String>> getScopes() {
+            List<Map<String, String>> scopes = new ArrayList<>();
+            for (Environment env = interpreter.currentEnv; env != null; env = env.parentEnv) {
+                Map<String, Object> variables = env.variables();
+                Map<String, String> shown = new java.util.TreeMap<>();
+                for (Map.Entry<String, Object> entry : variables.entrySet()) {
+                    shown.put(entry.getKey(), interpreter.stringify(entry.getValue()));
+                }
+                scopes.add(shown);
+            }
+            return scopes;
+        }
+    }
+
+    // the spot a statement sits in inside the debugger's copy of the tree,
+    // either a slot in a list (a block or function body) or a Slot
+    private static class Location {
+        final List<Statement> list;
+        final int index;
+        final Slot slot;
+        final Statement original;
+        final Statement hook;
+        final int line;
+        final String file;
+
+        // statements on the same line as the one they're in, like the body of if (x) print x;
+        // A breakpoint only stops at the outer one, otherwise it'd stop twice on one line
+        final boolean nested;
+
+        Location(List<Statement> list, int index, Slot slot, Statement original, int line, String file, boolean nested,
+                LoxDebugger debugger) {
+            this.list = list;
+            this.index = index;
+            this.slot = slot;
+            this.original = original;
+            this.line = line;
+            this.file = file;
+            this.nested = nested;
+            hook = new Statement.Hook(original, new Stop(this, debugger));
+        }
+
+        void hooked(boolean on) {
+            Statement s = on ? hook : original;
+            if (slot != null) {
+                slot.current = s;
+            }
+            else {
+                list.set(index, s);
+            }
+        }
+    }
+
+    // stops (maybe) before running the statement it hooks
+    static class Stop extends Probe {
+        private final Location location;
+        private final LoxDebugger debugger;
+
+        Stop(Location location, LoxDebugger debugger) {
+            this.location = location;
+            this.debugger = debugger;
+        }
+
+        @Override
+        Object statement(Interpreter interpreter, Statement statement) {
+            debugger.reached(location, interpreter);
+            return statement.accept(interpreter);
+        }
+    }
+
+    // holds the body of an if or while so a hook can be swapped in. It sits on a hook of its own
+    // around the body, and runs whichever of the two is in the slot right now
+    static class Slot extends Probe {
+        volatile Statement current;
+
+        Slot(Statement current) {
+            this.current = current;
+        }
+
+        @Override
+        Object statement(Interpreter interpreter, Statement body) {
+            return current.accept(interpreter);
+        }
+    }
+
+    // the debugger's copy of a script and the spot of every statement in it
+    private static class Copy {
+        final List<Statement> statements;
+        final List<Location> locations;
+
+        Copy(List<Statement> statements, List<Location> locations) {
+            this.statements = statements;
+            this.locations = locations;
+        }
+    }
+
+    // makes the copy of a script, remembering where every statement went
+    private class Copier extends TreeRewriter {
+        private final String file;
+        private final List<Location> locations = new ArrayList<>();
+
+        // the line of the statement wrap() saw last, which is the one statement() just copied
+        private int copiedLine;
+
+        // set while copying a function's body. A call runs it later, so its statements aren't
+        // nested in the declaration even on a one line function
+        private boolean functionBody = false;
+
+        Copier(String file) {
+            this.file = file;
+        }
+
+        @Override
+        protected Statement wrap(Statement copy) {
+            copiedLine = line;
+            return copy;
+        }
+
+        @Override
+        protected Statement.FunctionStatement function(Statement.FunctionStatement s, String name) {
+            functionBody = true;
+            return super.function(s, name);
+        }
+
+        @Override
+        protected List<Statement> statements(List<Statement> list) {
+            // line is the line of the statement these are in (0 at the top of a script)
+            int outerLine = functionBody ? -1 : line;
+            functionBody = false;
+            List<Statement> copies = new ArrayList<>(list.size());
+            for (Statement s : list) {
+                Statement copy = statement(s);
+                copies.add(copy);
+                locations.add(new Location(copies, copies.size() - 1, null, copy, copiedLine, file,
+                    copiedLine == outerLine, LoxDebugger.this));
+            }
+            return copies;
+        }
+
+        @Override
+        protected Statement child(Statement s) {
+            if (s == null) return null;
+            int outerLine = line;
+            Statement copy = statement(s);
+            Slot slot = new Slot(copy);
+            locations.add(new Location(null, 0, slot, copy, copiedLine, file, copiedLine == outerLine, LoxDebugger.this));
+            return new Statement.Hook(copy, slot);
+        }
+    }
+
+    private final Listener listener;
+
+    // the copy of every script this debugger has prepared. Weak, so a script that's done with (say
+    // one line of a REPL) takes its copy with it. Guarded by this, like everything below
+    private final Map<CompiledScript, Copy> copies = new WeakHashMap<>();
+
+    // "line" for the script itself, "file:line" for imported files
+    private final Set<String> breakpoints = new HashSet<>();
+
+    // what the last command asked for. Only the interpreter that was stopped gets stepped,
+    // other fibers only stop at breakpoints. A null stepping interpreter means any of them
+    private Command stepping = Command.CONTINUE;
+    private Interpreter steppingInterpreter = null;
+    private int stepDepth = 0;
+    private Location stepFrom = null;
+
+    public LoxDebugger(Listener listener) {
+        this.listener = listener;
+    }
+
+    // stop at the very first statement that runs, so breakpoints can be set from the listener
+    public synchronized void pauseAtStart() {
+        stepping = Command.STEP_INTO;
+        steppingInterpreter = null;
+        stepFrom = null;
+        updateHooks();
+    }
+
+    public void setBreakpoint(int line) {
+        setBreakpoint(null, line);
+    }
+
+    public void removeBreakpoint(int line) {
+        removeBreakpoint(null, line);
+    }
+
+    // file is the name of an imported file (like math.lox), or null for the script itself
+    public synchronized void setBreakpoint(String file, int line) {
+        breakpoints.add(key(file, line));
+        updateHooks();
+    }
+
+    public synchronized void removeBreakpoint(String file, int line) {
+        breakpoints.remove(key(file, line));
+        updateHooks();
+    }
+
+    public synchronized Set<String> getBreakpoints() {
+        return new HashSet<>(breakpoints);
+    }
+
+    private static String key(String file, int line) {
+        return file == null ? String.valueOf(line) : file + ":" + line;
+    }
+
+    // called by LoxIsolate with every script (and imported file) before it runs
+    synchronized List<Statement> prepare(CompiledScript script, String file) {
+        Copy copy = copies.get(script);
+        if (copy == null) {
+            Copier copier = new Copier(file);
+            copy = new Copy(copier.rewrite(script.getStatements()), copier.locations);
+            copies.put(script, copy);
+        }
+        hook(copy.locations);
+        return copy.statements;
+    }
+
+    private boolean isBreakpoint(Location location) {
+        return !location.nested && breakpoints.contains(key(location.file, location.line));
+    }
+
+    // puts hooks exactly where they're needed right now
+    private void updateHooks() {
+        for (Copy copy : copies.values()) {
+            hook(copy.locations);
+        }
+    }
+
+    private void hook(List<Location> locations) {
+        boolean everywhere = stepping != Command.CONTINUE;
+        for (Location location : locations) {
+            location.hooked(everywhere || isBreakpoint(location));
+        }
+    }
+
+    private synchronized void reached(Location location, Interpreter interpreter) {
+        int depth = interpreter.callStack.depth();
+        boolean stop = isBreakpoint(location);
+
+        if (!stop && stepping != Command.CONTINUE
+                && (steppingInterpreter == null || steppingInterpreter == interpreter)) {
+            // stepping goes to the next line, not the next statement on the same line
+            boolean moved = stepFrom == null || location.line != stepFrom.line
+                || !Objects.equals(location.file, stepFrom.file) || depth != stepDepth;
+            switch (stepping) {
+                case STEP_INTO:
+                    stop = moved;
+                    break;
+                case STEP_OVER:
+                    stop = moved && depth <= stepDepth;
+                    break;
+                case STEP_OUT:
+                    stop = depth < stepDepth;
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (!stop) return;
+
+        interpreter.flushOutput();
+        Command command = listener.paused(this, new Pause(location, interpreter));
+        stepping = command == null ? Command.CONTINUE : command;
+        steppingInterpreter = interpreter;
+        stepDepth = depth;
+        stepFrom = location;
+        updateHooks();
+    }
+}
@@ -0,0 +1,142 @@
+package com.craftinginterpreters.lox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Java Flight Recorder events for what Lox code does, so it shows up in a recording next to the
+ * GC and JIT events. They all go under the "Lox" category in JDK Mission Control.
+ *
+ * Nothing gets made at all unless a recording is running, which a listener keeps track of in
+ * recording. So with JFR off, a call or instantiation just reads one volatile boolean. While
+ * recording, the fields are only filled in after shouldCommit() says the event will be written
+ * (it's on in the recording's settings and took longer than its threshold).
+ *
+ * None of these record a java stack trace, it would just be Interpreter.visit* frames.
+ */
+class LoxEvents {
+    // true while at least one recording is running
+    static volatile boolean recording = false;
+
+    static {
+        // this doesn't start JFR, it only tells us when someone else does
+        FlightRecorder.addListener(new FlightRecorderListener() {
+            @Override
+            public void recordingStateChanged(Recording changed) {
+                updateRecording();
+            }
+        });
+        // a recording started with -XX:StartFlightRecording is already running by now
+        if (FlightRecorder.isInitialized()) updateRecording();
+    }
+
+    private static void updateRecording() {
+        boolean running = false;
+        for (Recording r : FlightRecorder.getFlightRecorder().getRecordings()) {
+            if (r.getState() == RecordingState.RUNNING) running = true;
+        }
+        recording = running;
+    }
+
+    // a Lox function call, from LoxFunction.call. A call that ends in tail calls is one event
+    // for the function that was first called. Only calls longer than the threshold are written,
+    // which can be changed in the recording settings (lox.Call#threshold)
+    @Name("lox.Call")
+    @Label("Lox Function Call")
+    @Category("Lox")
+    @Description("A call of a Lox function that took longer than the threshold")
+    @Threshold("10 ms")
+    @StackTrace(false)
+    static class Call extends Event {
+        @Label("Function")
+        String function;
+
+        @Label("Line")
+        @Description("The line the function was declared on")
+        int line;
+    }
+
+    // a class being called to make an instance, including its init method. Off unless the
+    // recording turns it on (lox.Instantiation#enabled=true), since scripts can make millions
+    @Name("lox.Instantiation")
+    @Label("Lox Instantiation")
+    @Category("Lox")
+    @Description("A new instance of a Lox class, including the time its init took")
+    @Enabled(false)
+    @StackTrace(false)
+    static class Instantiation extends Event {
+        @Label("Class")
+        String className;
+    }
+
+    // a runtime error that stopped a script or fiber
+    @Name("lox.RuntimeError")
+    @Label("Lox Runtime Error")
+    @Category("Lox")
+    @StackTrace(false)
+    static class ScriptError extends Event {
+        @Label("Message")
+        String message;
+
+        @Label("Line")
+        int line;
+
+        @Label("Token")
+        String token;
+    }
+
+    // null when nothing is recording, pass it to endCall either way
+    static Call startCall() {
+        if (!recording) return null;
+        Call event = new Call();
+        event.begin();
+        return event;
+    }
+
+    static void endCall(Call event, Token name) {
+        if (event == null) return;
+        event.end();
+        if (event.shouldCommit()) {
+            event.function = name.lexeme;
+            event.line = name.line;
+            event.commit();
+        }
+    }
+
+    static Instantiation startInstantiation() {
+        if (!recording) return null;
+        Instantiation event = new Instantiation();
+        event.begin();
+        return event;
+    }
+
+    static void endInstantiation(Instantiation event, String className) {
+        if (event == null) return;
+        event.end();
+        if (event.shouldCommit()) {
+            event.className = className;
+            event.commit();
+        }
+    }
+
+    static void runtimeError(RuntimeError e) {
+        if (!recording) return;
+        ScriptError event = new ScriptError();
+        if (event.shouldCommit()) {
+            event.message = e.getMessage();
+            event.line = e.token.line;
+            event.token = e.token.lexeme;
+            event.commit();
+        }
+    }
+}
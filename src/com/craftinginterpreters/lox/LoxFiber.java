@@ -0,0 +1,151 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A fiber is a Lox function running concurrently with the rest of the script, started with
+ * spawn(fn). Each fiber gets its own Interpreter from fork(), so the scopes it makes while it runs
+ * are its own, but it shares the globals (and output) with the code that spawned it, and so do the
+ * scopes its function closed over. Fibers talk to each other through channels (see LoxChannel) and
+ * fiberJoin(fiber) waits for one to finish and gives back what its function returned.
+ *
+ * A run of a script isn't over until every fiber it started has finished, joined or not, so
+ * LoxIsolate.run() waits for them before it hands back its result (and flushes the output).
+ *
+ * Fibers run on java virtual threads when the JVM has them (java 21 and up), so a script can have
+ * tens of thousands of them waiting on channels at once. On older JVMs they fall back to normal
+ * threads, which works the same but costs a lot more per fiber.
+ */
+public class LoxFiber {
+    private static final ExecutorService executor = makeExecutor();
+
+    // the running (or finished) function, its result is the fiber's return value
+    private final Future<Object> result;
+
+    private LoxFiber(Future<Object> result) {
+        this.result = result;
+    }
+
+    @Override
+    public String toString() {
+        return "<fiber>";
+    }
+
+    // the fibers an isolate started that haven't finished yet, so a run can wait for them.
+    // Shared by the isolate's Interpreter and all of its forks
+    static class Running {
+        // a lock instead of synchronized, for the same reason as LoxChannel
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition done = lock.newCondition();
+        private int count = 0;
+
+        private void started() {
+            lock.lock();
+            try {
+                count++;
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        private void finished() {
+            lock.lock();
+            try {
+                if (--count == 0) done.signalAll();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+
+        // returns once every fiber has finished, including ones that were started while waiting
+        void await() throws InterruptedException {
+            lock.lock();
+            try {
+                while (count > 0) done.await();
+            }
+            finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // starts running function on its own fiber with a forked interpreter
+    static LoxFiber spawn(Interpreter parent, LoxCallable function) {
+        Interpreter context = parent.fork();
+        parent.fibers.started();
+        return new LoxFiber(executor.submit(() -> {
+            try {
+                return function.call(context, Interpreter.NO_ARGS);
+            }
+            catch (RuntimeError e) {
+                // nobody might ever join this fiber, so report it now like the main script would
+                context.reportRuntimeError(e);
+                throw e;
+            }
+            finally {
+                context.finishFork();
+                context.fibers.finished();
+            }
+        }));
+    }
+
+    // waits for the fiber to finish and returns what its function returned
+    Object join() {
+        try {
+            return result.get();
+        }
+        catch (ExecutionException e) {
+            // the error itself was already reported (and counted) by the fiber
+            throw new NativeFunction.NativeError("Joined fiber failed: " + e.getCause().getMessage(), true);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NativeFunction.NativeError("Interrupted while waiting for fiber");
+        }
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() only exists on java 21+, so look it up
+    // reflectively and we still compile and run on older JVMs
+    private static ExecutorService makeExecutor() {
+        try {
+            Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtual.invoke(null);
+        }
+        catch (ReflectiveOperationException e) {
+            // daemon threads so that fibers nobody joined don't keep the JVM alive, just like virtual threads
+            return Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "lox-fiber");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+    }
+
+    // called from the Interpreter constructor to put the fiber functions into globals
+    static void defineNatives(Interpreter interpreter) {
+        interpreter.defineNative("spawn", 1, (i, args) -> {
+            if (!(args[0] instanceof LoxCallable) || ((LoxCallable) args[0]).arity() != 0) {
+                throw new NativeFunction.NativeError("spawn expects a function that takes no arguments");
+            }
+            if (i.concurrency != LoxIsolate.Concurrency.CONCURRENT) {
+                throw new NativeFunction.NativeError("spawn needs an isolate made with Concurrency.CONCURRENT");
+            }
+            return spawn(i, (LoxCallable) args[0]);
+        });
+
+        interpreter.defineNative("fiberJoin", 1, (i, args) -> {
+            if (!(args[0] instanceof LoxFiber)) {
+                throw new NativeFunction.NativeError("fiberJoin expects a fiber");
+            }
+            return ((LoxFiber) args[0]).join();
+        });
+    }
+}
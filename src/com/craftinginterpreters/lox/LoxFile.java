@@ -0,0 +1,211 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * A file opened for reading with openFile(path). fileReadLine(f) gives back the next line
+ * (without the line ending), or nil once the whole file has been read.
+ *
+ * The file is read in fixed size chunks through an AsynchronousFileChannel. As soon as one chunk
+ * arrives, the read for the next one is started, so the disk is working on it while the script is
+ * still going through the lines of this one. Only two chunks are ever held at once, so a script
+ * can stream through a file of any size. readFile and readLines use the same reader, but keep
+ * the whole file.
+ *
+ * Like LoxList, a file should only be read by one fiber at a time.
+ */
+public class LoxFile {
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final String path;
+    private final AsynchronousFileChannel channel;
+
+    // where in the file the next read starts
+    private long position = 0;
+
+    // the read in progress, filling reading. The other buffer is the one the last chunk came in
+    private Future<Integer> pending;
+    private ByteBuffer reading = ByteBuffer.allocate(CHUNK_SIZE);
+    private ByteBuffer other = ByteBuffer.allocate(CHUNK_SIZE);
+
+    // decoded text from the last chunk that hasn't been handed to the script yet.
+    // UTF-8 never decodes to more chars than it had bytes, so one chunk always fits
+    private final CharBuffer chars = CharBuffer.allocate(CHUNK_SIZE);
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    // true once the last chunk has been decoded, the channel gets closed right then
+    private boolean eof = false;
+
+    private LoxFile(String path) {
+        this.path = path;
+        try {
+            channel = AsynchronousFileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        }
+        catch (IOException | RuntimeException e) {
+            throw new NativeFunction.NativeError("Can't open file " + path);
+        }
+        chars.flip();
+        pending = channel.read(reading, position);
+    }
+
+    @Override
+    public String toString() {
+        return "<file " + path + ">";
+    }
+
+    // returns the next line, or null (nil) at the end of the file
+    Object readLine() {
+        StringBuilder line = new StringBuilder();
+        while (true) {
+            while (chars.hasRemaining()) {
+                char c = chars.get();
+                if (c == '\n') return finishLine(line);
+                line.append(c);
+            }
+            if (eof) {
+                // the last line doesn't need a line ending
+                return line.length() == 0 ? null : finishLine(line);
+            }
+            fill();
+        }
+    }
+
+    // everything that's left in the file
+    LoxString readAll() {
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            sb.append(chars);
+            chars.position(chars.limit());
+            if (eof) return StringTable.runtime(new LoxString(sb.toString()));
+            fill();
+        }
+    }
+
+    // fileClose, anything not read yet is dropped and later reads give back nil
+    void close() {
+        chars.position(chars.limit());
+        closeChannel();
+    }
+
+    private void closeChannel() {
+        eof = true;
+        try {
+            channel.close();
+        }
+        catch (IOException e) {
+            // we were only reading, so there's nothing that could have been lost
+        }
+    }
+
+    // waits for the pending chunk, decodes it into chars and starts reading the chunk after it
+    private void fill() {
+        int read = await();
+        ByteBuffer full = reading;
+        full.flip();
+
+        chars.clear();
+        if (read < 0) {
+            // whatever partial character was left at the very end gets decoded as a replacement
+            decoder.decode(full, chars, true);
+            decoder.flush(chars);
+            chars.flip();
+            closeChannel();
+            return;
+        }
+        position += read;
+        decoder.decode(full, chars, false);
+        chars.flip();
+
+        // a multi byte character can get cut off at the end of a chunk. Those bytes are still in
+        // full, so they go at the front of the other buffer and the next chunk gets read in after them
+        other.clear();
+        other.put(full);
+        reading = other;
+        other = full;
+        pending = channel.read(reading, position);
+    }
+
+    private int await() {
+        try {
+            return pending.get();
+        }
+        catch (ExecutionException e) {
+            closeChannel();
+            throw new NativeFunction.NativeError("Can't read file " + path + ": " + e.getCause().getMessage());
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new NativeFunction.NativeError("Interrupted while reading file " + path);
+        }
+    }
+
+    // drops the \r of a windows line ending
+    private static LoxString finishLine(StringBuilder line) {
+        int length = line.length();
+        if (length > 0 && line.charAt(length - 1) == '\r') line.setLength(length - 1);
+        return StringTable.runtime(new LoxString(line.toString()));
+    }
+
+    // called from the Interpreter constructor to put the file functions into globals
+    static void defineNatives(Interpreter interpreter) {
+        interpreter.defineNative("readFile", 1, (i, args) -> {
+            LoxString contents = new LoxFile(pathOf("readFile", args[0])).readAll();
+            i.allocate(AllocationTracker.Kind.STRING, AllocationTracker.STRING_BYTES + contents.length(), null);
+            return contents;
+        });
+
+        interpreter.defineNative("readLines", 1, (i, args) -> {
+            LoxFile file = new LoxFile(pathOf("readLines", args[0]));
+            LoxList lines = new LoxList();
+            Object line = file.readLine();
+            while (line != null) {
+                i.allocate(AllocationTracker.Kind.STRING,
+                    AllocationTracker.STRING_BYTES + ((LoxString) line).length() + AllocationTracker.LIST_ELEMENT_BYTES, null);
+                lines.append(line);
+                line = file.readLine();
+            }
+            return lines;
+        });
+
+        interpreter.defineNative("openFile", 1, (i, args) -> new LoxFile(pathOf("openFile", args[0])));
+
+        interpreter.defineNative("fileReadLine", 1, (i, args) -> {
+            Object line = asFile("fileReadLine", args[0]).readLine();
+            if (line != null) {
+                i.allocate(AllocationTracker.Kind.STRING, AllocationTracker.STRING_BYTES + ((LoxString) line).length(), null);
+            }
+            return line;
+        });
+
+        interpreter.defineNative("fileClose", 1, (i, args) -> {
+            asFile("fileClose", args[0]).close();
+            return null;
+        });
+    }
+
+    private static String pathOf(String nativeName, Object o) {
+        if (!(o instanceof LoxString)) {
+            throw new NativeFunction.NativeError(nativeName + " expects a file path string");
+        }
+        return o.toString();
+    }
+
+    private static LoxFile asFile(String nativeName, Object o) {
+        if (!(o instanceof LoxFile)) {
+            throw new NativeFunction.NativeError(nativeName + " expects a file from openFile");
+        }
+        return (LoxFile) o;
+    }
+}
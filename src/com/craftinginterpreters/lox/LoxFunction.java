@@ -2,8 +2,6 @@ package com.craftinginterpreters.lox;
 
 import java.util.List;
 
-import com.craftinginterpreters.lox.Interpreter.ReturnException;
-
 /**
  * The class to hold our defined functions, implements LoxCallable so we can use call()
  */
@@ -31,30 +29,69 @@ public class LoxFunction implements LoxCallable {
 
     // represents a function execution
     @Override
-    public Object call(Interpreter i, List<Object> args) {
+    public Object call(Interpreter i, Object[] args) {
+        // this is a trampoline for tail calls. When the body ends with "return g(...)" the interpreter
+        // hands us back g and its arguments instead of calling g itself, and we just loop around and
+        // run g right here. So tail recursive functions (and functions that tail call each other)
+        // run in a constant amount of java stack
+        LoxFunction current = this;
+        // keep the shadow stack up to date for the profiler and error traces, a tail call takes over our slot
+        i.callStack.push(current, i.callLine);
+        LoxEvents.Call event = LoxEvents.startCall();
+        try {
+            while (true) {
+                // every call counts against the run's budget, including tail calls
+                i.tick(current.function.funcName);
+                i.callCount++;
+                i.allocate(AllocationTracker.Kind.FRAME,
+                    AllocationTracker.FRAME_BYTES + AllocationTracker.ENTRY_BYTES * args.length, current.function.funcName);
+                Object completion = i.executeBlock(current.function.code, current.bindArguments(args));
 
-        // define a new environment for func execution that has closure as parent env
-        Environment funcEnv = new Environment(closure);
+                if (completion instanceof Interpreter.TailCall) {
+                    Interpreter.TailCall tailCall = (Interpreter.TailCall) completion;
+                    current = tailCall.function;
+                    args = tailCall.args;
+                    i.callStack.replaceTop(current);
+                    continue;
+                }
 
-        // define all the parameters in this new environment
-        for (int j = 0; j < args.size(); j++) {
-            funcEnv.addNewVariable(function.args.get(j).lexeme, args.get(j));
-        }
+                // if we hit a return statement before code execution finished, return the specified value
+                if (completion instanceof Interpreter.Return) {
+                    // we will makeconstructors always return the value of "this"
+                    if (current.isInitializer) return current.closure.getAt("this", 0);
+                    return ((Interpreter.Return) completion).returnValue;
+                }
 
-        // first try to call interpreter function to execute block of code with the function's environment
-        // if we hit a return statement before code execution finishes, this try/catch will
-        // return the specified value in the return statement
-        try {
-            i.executeBlock(function.code, funcEnv);
+                // by default functions return null (or nil in Lox)
+                return null;
+            }
+        }
+        catch (RuntimeError e) {
+            // the innermost call an error goes through takes its Lox stack trace, before the frames get popped
+            if (e.loxStack == null) e.loxStack = i.callStack.trace(e.token.line);
+            throw e;
         }
-        catch (ReturnException r) {
-            // we will makeconstructors always return the value of "this"
-            if (isInitializer) return closure.getAt("this", 0);
-            return r.returnValue;
+        finally {
+            i.callStack.pop();
+            LoxEvents.endCall(event, function.funcName);
         }
+    }
+
+    // define a new environment for func execution that has closure as parent env, with the parameters in it
+    private Environment bindArguments(Object[] args) {
+        // sized for the parameters so filling it in never resizes
+        Environment funcEnv = new Environment(closure, args.length);
+
+        List<Token> params = function.args;
+        for (int j = 0; j < args.length; j++) {
+            funcEnv.define(params.get(j).lexeme, args[j]);
+        }
+        return funcEnv;
+    }
 
-        // by default functions return null (or nil in Lox)
-        return null;
+    // the name this function was declared with, and where
+    Token name() {
+        return function.funcName;
     }
 
     @Override
@@ -0,0 +1,557 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Makes up Lox programs of whatever size and shape is asked for, for stress testing the Scanner,
+ * Parser, Resolver and Interpreter (see tools.StressTest) and for DifferentialTest. The program is
+ * built as a tree of the same Expression and Statement nodes the Parser makes, and AstPrinter turns
+ * it into source.
+ *
+ * Every program has a list, a string literalLength long and some globals, a chain of functions
+ * that each call the one before, a family of classes (each one maybe a subclass of an earlier one,
+ * overriding get() through super), an object of each class, then the random statements, and last
+ * a "spine" of blocks, ifs and whiles nested as deep as asked for. The Builder says how much of each there is.
+ *
+ * Programs are meant to run, not just parse. Expressions are typed as they're made (numbers, strings
+ * and bools), nothing is divided by anything but a literal that isn't 0, loop counters are never
+ * assigned, and the only calls are to functions that can't call back up, so every program finishes
+ * without a runtime error. The same seed always makes the same program.
+ */
+public class LoxGenerator {
+    public static class Builder {
+        private int statements = 20;
+        private int nesting = 3;
+        private int classes = 2;
+        private int callChain = 3;
+        private int literalLength = 8;
+        private int expressionDepth = 3;
+
+        // how many random statements there are at the top level (some of them are blocks,
+        // ifs, loops and function declarations with more statements in them)
+        public Builder statements(int statements) {
+            this.statements = statements;
+            return this;
+        }
+
+        // how deep the spine of nested blocks, ifs and whiles goes. Random statements only nest
+        // up to 3 deep, since every level of loops multiplies how long the program runs
+        public Builder nesting(int depth) {
+            this.nesting = depth;
+            return this;
+        }
+
+        // how many classes there are
+        public Builder classes(int classes) {
+            this.classes = classes;
+            return this;
+        }
+
+        // how many functions there are in the chain, the last one gets called once so the
+        // program goes this many Lox calls deep
+        public Builder callChain(int length) {
+            this.callChain = length;
+            return this;
+        }
+
+        // how long the long string literals are. Number literals get up to this many digits,
+        // but no more than 15 since a double can't hold more
+        public Builder literalLength(int length) {
+            this.literalLength = length;
+            return this;
+        }
+
+        // how deep expressions nest (up to 3 inside function bodies). Only one side of a binary
+        // expression goes deep, so they get longer in a straight line instead of doubling in size every level
+        public Builder expressionDepth(int depth) {
+            this.expressionDepth = depth;
+            return this;
+        }
+
+        public LoxGenerator build() {
+            if (statements < 0 || nesting < 0 || classes < 0 || callChain < 1 || literalLength < 1 || expressionDepth < 0) {
+                throw new IllegalArgumentException("Generator sizes can't be negative (and there's always one chain function)");
+            }
+            return new LoxGenerator(this);
+        }
+    }
+
+    // how many numbers the global list has, every index into it is a literal below this
+    private static final int ITEMS = 8;
+
+    private static final String[] WORDS = {"", "a", "lox", "tree", "walk", "jlox", "hello world"};
+
+    private final Builder shape;
+
+    private LoxGenerator(Builder shape) {
+        this.shape = shape;
+    }
+
+    // the source of a program, see Program for what's in it
+    public String generate(long seed) {
+        return new AstPrinter().print(program(seed));
+    }
+
+    List<Statement> program(long seed) {
+        return new Program(seed).build();
+    }
+
+    // the state of making one program
+    private class Program {
+        private final Random random;
+        // the digits and letters of long literals come from here, so making them longer doesn't
+        // change the rest of the program
+        private final Random letters;
+        private final List<Statement> out = new ArrayList<>();
+
+        // names in scope that hold numbers and strings, innermost scope last
+        private final List<List<String>> numbers = new ArrayList<>();
+        private final List<List<String>> strings = new ArrayList<>();
+
+        // global objects, one of each class
+        private final List<String> objects = new ArrayList<>();
+
+        // functions of one number that return a number, which expressions can call. While making
+        // a function body only chain0 can be called, so functions never call back up and programs stay fast
+        private final List<String> functions = new ArrayList<>();
+        private boolean inFunction = false;
+
+        private int loopDepth = 0;
+        private int nextName = 0;
+
+        Program(long seed) {
+            random = new Random(seed);
+            letters = new Random(~seed);
+        }
+
+        List<Statement> build() {
+            pushScope();
+            items();
+            // one string that's always literalLength long, so the literals grow even in small programs
+            out.add(new Statement.VariableDeclaration(identifier("text"), longString()));
+            strings.get(0).add("text");
+            for (int k = 0; k < 4; k++) {
+                out.add(numberVariable());
+                out.add(stringVariable());
+            }
+            chain();
+            for (int k = 0; k < shape.classes; k++) {
+                classDeclaration(k);
+            }
+            for (int k = 0; k < shape.statements; k++) {
+                if (random.nextInt(10) == 0) {
+                    out.add(function());
+                }
+                else {
+                    out.add(statement(0));
+                }
+            }
+            out.add(spine(shape.nesting));
+            return out;
+        }
+
+        // ================================= Declarations ========================= //
+
+        private Statement numberVariable() {
+            String name = newName("n");
+            Statement declaration = new Statement.VariableDeclaration(identifier(name), number(expressionDepth()));
+            // only visible after its own initializer, like the Resolver wants
+            numbers.get(numbers.size() - 1).add(name);
+            return declaration;
+        }
+
+        private Statement stringVariable() {
+            String name = newName("s");
+            Statement declaration = new Statement.VariableDeclaration(identifier(name), string(expressionDepth()));
+            strings.get(strings.size() - 1).add(name);
+            return declaration;
+        }
+
+        // var items = List(); and ITEMS numbers appended to it
+        private void items() {
+            out.add(new Statement.VariableDeclaration(identifier("items"), call(variable("List"))));
+            for (int k = 0; k < ITEMS; k++) {
+                out.add(new Statement.ExpressionStatement(call(variable("listAppend"), variable("items"), literalNumber())));
+            }
+        }
+
+        // fun chain0(n) { return n + 1; } and every chainK(n) { return chainK-1(n) + 1; }, then a print
+        // of the last one. Not a tail call, so it really does go callChain calls deep
+        private void chain() {
+            for (int k = 0; k < shape.callChain; k++) {
+                Expression inner = k == 0 ? variable("n") : call(variable("chain" + (k - 1)), variable("n"));
+                out.add(new Statement.FunctionStatement(identifier("chain" + k), Arrays.asList(identifier("n")),
+                    Arrays.asList(returnStatement(binary(inner, TokenType.PLUS, "+", literal(1))))));
+            }
+            functions.add("chain0");
+            out.add(print(call(variable("chain" + (shape.callChain - 1)), literal(0))));
+        }
+
+        // class Ck : Cp {
+        //     init(x) { super.init(x); this.value = x; this.fk = "..."; }
+        //     get() { return super.get() + 1; }
+        //     step(n) { this.value = this.value + n; return this; }    (only classes without a superclass)
+        // }
+        // and var objK = Ck(...); print objK.get();
+        private void classDeclaration(int k) {
+            String name = "C" + k;
+            int superclass = k > 0 && random.nextBoolean() ? random.nextInt(k) : -1;
+
+            List<Statement> init = new ArrayList<>();
+            if (superclass >= 0) init.add(new Statement.ExpressionStatement(call(superMethod("init"), variable("x"))));
+            init.add(setThis("value", variable("x")));
+            init.add(setThis("f" + k, literalString()));
+
+            Expression value = new Expression.Get(thisExpression(), identifier("value"));
+            Expression get = superclass >= 0 ? binary(call(superMethod("get")), TokenType.PLUS, "+", literal(1)) : value;
+
+            List<Statement.FunctionStatement> methods = new ArrayList<>();
+            methods.add(method("init", "x", init));
+            methods.add(method("get", null, Arrays.asList(returnStatement(get))));
+            if (superclass < 0) {
+                methods.add(method("step", "n", Arrays.asList(
+                    setThis("value", binary(value, TokenType.PLUS, "+", variable("n"))),
+                    returnStatement(thisExpression()))));
+            }
+            out.add(new Statement.ClassDeclaration(identifier(name),
+                superclass >= 0 ? variable("C" + superclass) : null, methods));
+
+            String object = "obj" + k;
+            out.add(new Statement.VariableDeclaration(identifier(object), call(variable(name), number(1))));
+            out.add(print(call(new Expression.Get(variable(object), identifier("get")))));
+            objects.add(object);
+        }
+
+        private Statement.FunctionStatement method(String name, String parameter, List<Statement> body) {
+            List<Token> parameters = parameter == null ? Collections.emptyList() : Arrays.asList(identifier(parameter));
+            return new Statement.FunctionStatement(identifier(name), parameters, body);
+        }
+
+        private Statement setThis(String field, Expression value) {
+            return new Statement.ExpressionStatement(new Expression.Set(thisExpression(), identifier(field), value));
+        }
+
+        // fun fK(pK) { a few statements; return <number>; }
+        private Statement function() {
+            String name = newName("f");
+            String parameter = newName("p");
+            pushScope();
+            numbers.get(numbers.size() - 1).add(parameter);
+            inFunction = true;
+            List<Statement> body = new ArrayList<>();
+            for (int k = 0; k < 1 + random.nextInt(4); k++) {
+                body.add(statement(1));
+            }
+            body.add(returnStatement(number(expressionDepth())));
+            inFunction = false;
+            popScope();
+            // declared after its body, so it can't call itself
+            functions.add(name);
+            return new Statement.FunctionStatement(identifier(name), Arrays.asList(identifier(parameter)), body);
+        }
+
+        // ================================= Statements ========================= //
+
+        private Statement statement(int depth) {
+            // nesting is capped so programs don't run for too long, see Builder.nesting
+            int kinds = depth < Math.min(shape.nesting, 3) ? 11 : 7;
+            switch (random.nextInt(kinds)) {
+                case 0:
+                    return print(number(expressionDepth()));
+                case 1:
+                    return print(string(expressionDepth()));
+                case 2:
+                    return print(bool(expressionDepth()));
+                case 3: {
+                    String target = pick(numbers, false);
+                    if (target == null) return numberVariable();
+                    return new Statement.ExpressionStatement(new Expression.Assignment(identifier(target), number(expressionDepth())));
+                }
+                case 4:
+                    if (objects.isEmpty()) return numberVariable();
+                    if (random.nextBoolean()) {
+                        // obj.step(n);
+                        return new Statement.ExpressionStatement(
+                            call(new Expression.Get(variable(pick(objects)), identifier("step")), number(2)));
+                    }
+                    return new Statement.ExpressionStatement(
+                        new Expression.Set(variable(pick(objects)), identifier("value"), number(2)));
+                case 5:
+                    // items[k] = n;
+                    return new Statement.ExpressionStatement(new Expression.SetIndex(variable("items"),
+                        token(TokenType.LEFT_BRACKET, "["), literal(random.nextInt(ITEMS)), number(2)));
+                case 6:
+                    if (loopDepth > 0 && random.nextInt(3) == 0) {
+                        return new Statement.IfStatement(bool(1), new Statement.BreakStatement(), null);
+                    }
+                    return random.nextBoolean() ? numberVariable() : stringVariable();
+                case 7:
+                    return new Statement.IfStatement(bool(2), randomBlock(depth),
+                        random.nextBoolean() ? randomBlock(depth) : null);
+                case 8:
+                case 9:
+                    // more than a couple of iterations only near the top, so nested loops don't multiply up
+                    return loop(depth, depth < 2 ? random.nextInt(5) : random.nextInt(2), depth);
+                default:
+                    return randomBlock(depth);
+            }
+        }
+
+        private Statement.BlockStatement randomBlock(int depth) {
+            pushScope();
+            List<Statement> body = new ArrayList<>();
+            if (random.nextBoolean()) body.add(numberVariable());
+            for (int k = 0; k < 1 + random.nextInt(3); k++) {
+                body.add(statement(depth + 1));
+            }
+            popScope();
+            return block(body);
+        }
+
+        // { var iK = 0; while (iK < times) { body; iK = iK + 1; } }
+        private Statement loop(int depth, int times, int bodyDepth) {
+            String counter = newName("i");
+            pushScope();
+            numbers.get(numbers.size() - 1).add(counter);
+            loopDepth++;
+            Statement.BlockStatement body = randomBlock(bodyDepth);
+            loopDepth--;
+            popScope();
+
+            List<Statement> code = new ArrayList<>(body.statements);
+            code.add(new Statement.ExpressionStatement(new Expression.Assignment(identifier(counter),
+                binary(variable(counter), TokenType.PLUS, "+", literal(1)))));
+            return block(Arrays.asList(
+                new Statement.VariableDeclaration(identifier(counter), literal(0)),
+                new Statement.WhileStatement(token(TokenType.WHILE, "while"),
+                    binary(variable(counter), TokenType.LESS, "<", literal(times)), block(code))));
+        }
+
+        // a block, if or loop (that runs once) with the next one inside it, depth levels deep.
+        // The innermost one prints a number
+        private Statement spine(int depth) {
+            if (depth == 0) return print(number(expressionDepth()));
+            pushScope();
+            List<Statement> body = new ArrayList<>();
+            body.add(numberVariable());
+            Statement inner;
+            switch (depth % 3) {
+                case 0:
+                    inner = block(Arrays.asList(spine(depth - 1)));
+                    break;
+                case 1:
+                    inner = new Statement.IfStatement(literal(true), block(Arrays.asList(spine(depth - 1))), null);
+                    break;
+                default:
+                    String counter = newName("i");
+                    body.add(new Statement.VariableDeclaration(identifier(counter), literal(0)));
+                    inner = new Statement.WhileStatement(token(TokenType.WHILE, "while"),
+                        binary(variable(counter), TokenType.LESS, "<", literal(1)),
+                        block(Arrays.asList(spine(depth - 1),
+                            new Statement.ExpressionStatement(new Expression.Assignment(identifier(counter), literal(1))))));
+            }
+            body.add(inner);
+            popScope();
+            return block(body);
+        }
+
+        // ================================= Expressions ========================= //
+
+        // only one side of a binary goes depth - 1 deep, the other stays shallow. Every choice
+        // goes down a level, so the expression really is depth deep
+        private Expression number(int depth) {
+            if (depth <= 0) {
+                String name = random.nextBoolean() ? pick(numbers, true) : null;
+                return name != null ? variable(name) : literalNumber();
+            }
+            int shallow = Math.min(depth - 1, 1);
+            switch (random.nextInt(9)) {
+                case 0:
+                    return binary(number(depth - 1), TokenType.PLUS, "+", number(shallow));
+                case 1:
+                    return binary(number(shallow), TokenType.MINUS, "-", number(depth - 1));
+                case 2:
+                    return binary(number(depth - 1), TokenType.STAR, "*", number(shallow));
+                case 3:
+                    // dividing by zero is a runtime error in this Lox, so only ever divide by literals that aren't 0
+                    return binary(number(depth - 1), TokenType.SLASH, "/", literal(1 + random.nextInt(9)));
+                case 4:
+                    return new Expression.Unary(token(TokenType.MINUS, "-"), new Expression.Grouping(number(depth - 1)));
+                case 5:
+                    return new Expression.Grouping(number(depth - 1));
+                case 6: {
+                    // the globals at the top come before any functions
+                    if (functions.isEmpty()) return number(depth - 1);
+                    List<String> callable = inFunction ? functions.subList(0, 1) : functions;
+                    return call(variable(callable.get(random.nextInt(callable.size()))), number(depth - 1));
+                }
+                case 7: {
+                    if (objects.isEmpty()) return number(depth - 1);
+                    Expression field = random.nextBoolean()
+                        ? call(new Expression.Get(variable(pick(objects)), identifier("get")))
+                        : new Expression.Get(variable(pick(objects)), identifier("value"));
+                    return binary(field, TokenType.PLUS, "+", number(depth - 1));
+                }
+                default: {
+                    Expression item = new Expression.GetIndex(variable("items"), token(TokenType.LEFT_BRACKET, "["),
+                        literal(random.nextInt(ITEMS)));
+                    return binary(number(depth - 1), TokenType.MINUS, "-", item);
+                }
+            }
+        }
+
+        private Expression string(int depth) {
+            if (depth <= 0) {
+                String name = random.nextBoolean() ? pick(strings, true) : null;
+                return name != null ? variable(name) : literalString();
+            }
+            if (random.nextBoolean()) {
+                // a literal on the right, a variable there would make strings that grow with
+                // every declaration that uses the one before
+                return binary(string(depth - 1), TokenType.PLUS, "+", literalString());
+            }
+            // + with a string on the left makes a string
+            return binary(string(depth - 1), TokenType.PLUS, "+", number(Math.min(depth - 1, 1)));
+        }
+
+        private Expression bool(int depth) {
+            if (depth <= 0) return literal(random.nextBoolean());
+            switch (random.nextInt(6)) {
+                case 0:
+                    return binary(number(depth - 1), TokenType.LESS, "<", number(0));
+                case 1:
+                    return binary(number(depth - 1), TokenType.GREATER_EQUAL, ">=", number(0));
+                case 2:
+                    return binary(number(depth - 1), TokenType.EQUAL_EQUAL, "==", number(0));
+                case 3:
+                    return new Expression.Unary(token(TokenType.BANG, "!"), bool(depth - 1));
+                case 4:
+                    return new Expression.Logical(bool(depth - 1), token(TokenType.AND, "and"), bool(0));
+                default:
+                    return new Expression.Logical(bool(depth - 1), token(TokenType.OR, "or"), bool(0));
+            }
+        }
+
+        // usually small, sometimes as many digits as literalLength allows
+        private Expression literalNumber() {
+            switch (random.nextInt(8)) {
+                case 0: {
+                    StringBuilder digits = new StringBuilder();
+                    digits.append(1 + random.nextInt(9));
+                    for (int k = 1; k < Math.min(shape.literalLength, 15); k++) digits.append(letters.nextInt(10));
+                    return literal(Double.parseDouble(digits.toString()));
+                }
+                case 1:
+                    return literal(random.nextInt(100) + random.nextInt(10) / 10.0);
+                default:
+                    return literal(random.nextInt(20));
+            }
+        }
+
+        // usually a word, sometimes literalLength letters
+        private Expression literalString() {
+            if (random.nextInt(8) != 0) return new Expression.Literal(WORDS[random.nextInt(WORDS.length)]);
+            return longString();
+        }
+
+        private Expression longString() {
+            StringBuilder text = new StringBuilder(shape.literalLength);
+            for (int k = 0; k < shape.literalLength; k++) {
+                text.append((char) ('a' + letters.nextInt(26)));
+            }
+            return new Expression.Literal(text.toString());
+        }
+
+        // ================================= Helpers ========================= //
+
+        // function bodies run once per call, and a deep expression can make a call every few levels,
+        // so expressions in functions stay shallow or the run time would grow with depth squared
+        private int expressionDepth() {
+            return inFunction ? Math.min(shape.expressionDepth, 3) : shape.expressionDepth;
+        }
+
+        // a variable from any scope. Loop counters (the i names) can be read but not assigned,
+        // so every loop still ends
+        private String pick(List<List<String>> scopes, boolean reading) {
+            List<String> visible = new ArrayList<>();
+            for (List<String> scope : scopes) {
+                for (String name : scope) {
+                    if (reading || !name.startsWith("i")) visible.add(name);
+                }
+            }
+            if (visible.isEmpty()) return null;
+            return visible.get(random.nextInt(visible.size()));
+        }
+
+        private String pick(List<String> names) {
+            return names.get(random.nextInt(names.size()));
+        }
+
+        private String newName(String prefix) {
+            return prefix + nextName++;
+        }
+
+        private void pushScope() {
+            numbers.add(new ArrayList<>());
+            strings.add(new ArrayList<>());
+        }
+
+        private void popScope() {
+            numbers.remove(numbers.size() - 1);
+            strings.remove(strings.size() - 1);
+        }
+    }
+
+    // ================================= Nodes ========================= //
+
+    // the lines don't matter, the program gets printed and scanned again before it runs
+    private static Token token(TokenType type, String lexeme) {
+        return new Token(type, lexeme, null, 1);
+    }
+
+    private static Token identifier(String name) {
+        return token(TokenType.IDENTIFIER, name);
+    }
+
+    private static Expression.Variable variable(String name) {
+        return new Expression.Variable(identifier(name));
+    }
+
+    private static Expression literal(Object value) {
+        // numbers are always doubles in Lox
+        if (value instanceof Integer) value = ((Integer) value).doubleValue();
+        return new Expression.Literal(value);
+    }
+
+    private static Expression binary(Expression left, TokenType type, String operator, Expression right) {
+        return new Expression.Binary(left, token(type, operator), right);
+    }
+
+    private static Expression call(Expression callee, Expression... args) {
+        return new Expression.Call(callee, Arrays.asList(args), token(TokenType.RIGHT_PAREN, ")"));
+    }
+
+    private static Expression thisExpression() {
+        return new Expression.This(token(TokenType.THIS, "this"));
+    }
+
+    private static Expression superMethod(String method) {
+        return new Expression.Super(token(TokenType.SUPER, "super"), identifier(method));
+    }
+
+    private static Statement print(Expression expression) {
+        return new Statement.PrintStatement(expression);
+    }
+
+    private static Statement returnStatement(Expression value) {
+        return new Statement.ReturnStatement(token(TokenType.RETURN, "return"), value);
+    }
+
+    private static Statement.BlockStatement block(List<Statement> statements) {
+        return new Statement.BlockStatement(token(TokenType.LEFT_BRACE, "{"), statements);
+    }
+}
@@ -1,16 +1,18 @@
 package com.craftinginterpreters.lox;
 
-import java.util.HashMap;
+import java.util.Map;
 
 // represents the instance of a class in Lox
 public class LoxInstance {
     private LoxClass classType;
 
-    // the fields on this class
-    private final HashMap<String, Object> fields = new HashMap<>();
+    // the fields on this class. nil values are stored as Environment.NIL, like variables are.
+    // In a CONCURRENT isolate this is a ConcurrentHashMap, since fibers and parallelMap workers can share instances
+    private final Map<String, Object> fields;
 
-    LoxInstance(LoxClass lc) {
+    LoxInstance(LoxClass lc, LoxIsolate.Concurrency concurrency) {
         classType = lc;
+        fields = concurrency.newMap();
     }
 
     @Override
@@ -25,8 +27,9 @@ public class LoxInstance {
     // will get errors. So that's why we do lf.bind().
     public Object getField(Token nameOfMember) {
         // check that field actually exists on the class
-        if (fields.containsKey(nameOfMember.lexeme)) {
-            return fields.get(nameOfMember.lexeme);
+        Object value = fields.get(nameOfMember.lexeme);
+        if (value != null) {
+            return Environment.unwrap(value);
         }
 
         // Ok, its not a field. Check if its a method stored on the class
@@ -37,8 +40,9 @@ public class LoxInstance {
         throw new RuntimeError(nameOfMember, "No property " + nameOfMember.lexeme + " on " + classType);
     }
 
-    public void setField(Token nameOfMember, Object newValue) {
+    // returns true if this made a new field, rather than changing one that was already there
+    public boolean setField(Token nameOfMember, Object newValue) {
         // ok no check here since field doesnt have to yet exist on the class
-        fields.put(nameOfMember.lexeme, newValue);
+        return fields.put(nameOfMember.lexeme, Environment.wrap(newValue)) == null;
     }
 }
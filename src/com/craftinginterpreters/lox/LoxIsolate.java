@@ -0,0 +1,472 @@
+package com.craftinginterpreters.lox;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.ref.Reference;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An isolate is one independent Lox "world": its own Interpreter (and so its own global variables),
+ * its own error state and its own output streams. Nothing in here is static, so a program that embeds
+ * Lox can make as many isolates as it wants and run them on different threads at the same time.
+ *
+ * One isolate should only be used by one thread at a time, the usual setup is an isolate per thread
+ * or per script. Running more code in the same isolate keeps the globals from the earlier runs,
+ * which is how the REPL works.
+ */
+public class LoxIsolate {
+    // the exit codes jlox uses, these come from the book (which got them from UNIX sysexits.h)
+    public static final int OK = 0;
+    public static final int COMPILE_ERROR = 65;
+    public static final int RUNTIME_ERROR = 70;
+
+    // whether Lox code in this isolate can run on more than one thread at once, picked when the
+    // isolate is made. It decides how the globals and instance fields are stored
+    public enum Concurrency {
+        // plain HashMaps. spawn() isn't allowed and parallelMap/parallelReduce just run on the calling thread
+        SINGLE_THREADED {
+            Map<String, Object> newMap() {
+                return new HashMap<>();
+            }
+
+            Map<String, Object> newMap(int expectedSize) {
+                // HashMap resizes at 75% full, so size it so these never trigger a resize
+                return new HashMap<>(expectedSize * 4 / 3 + 1);
+            }
+        },
+        // ConcurrentHashMaps, so fibers and parallel workers can read and write globals, fields and
+        // the scopes their functions closed over at the same time, and a write on one thread is
+        // always seen by the next read on another
+        CONCURRENT {
+            Map<String, Object> newMap() {
+                return new ConcurrentHashMap<>();
+            }
+
+            Map<String, Object> newMap(int expectedSize) {
+                // unlike HashMap, this one already leaves room for the load factor
+                return new ConcurrentHashMap<>(expectedSize);
+            }
+        };
+
+        abstract Map<String, Object> newMap();
+
+        // for when we know up front how many entries go in
+        abstract Map<String, Object> newMap(int expectedSize);
+    }
+
+    // for making an isolate with options the constructors don't cover, like
+    // new LoxIsolate.Builder().concurrency(Concurrency.CONCURRENT).outputBufferSize(0).build()
+    public static class Builder {
+        private PrintStream out = System.out;
+        private PrintStream err = System.err;
+        private OutputSink output = null;
+        private int outputBufferSize = OutputSink.DEFAULT_BUFFER_SIZE;
+        private ScriptCache cache = null;
+        private Concurrency concurrency = Concurrency.SINGLE_THREADED;
+        private long maxSteps = 0;
+        private long timeoutMillis = 0;
+        private boolean trackAllocations = false;
+        private long allocationLimit = 0;
+        private long profileIntervalMicros = 0;
+        private boolean instrument = false;
+        private int traceCapacity = 0;
+        private Path traceDumpPath = null;
+        private LoxDebugger debugger = null;
+        private boolean fileAccess = false;
+
+        public Builder out(PrintStream out) {
+            this.out = out;
+            return this;
+        }
+
+        // how many chars of printed output get collected before they're written to out,
+        // 0 writes every print right away
+        public Builder outputBufferSize(int chars) {
+            this.outputBufferSize = chars;
+            return this;
+        }
+
+        // prints go here instead of out, for example an OutputSink that writes to a file
+        public Builder output(OutputSink output) {
+            this.output = output;
+            return this;
+        }
+
+        public Builder err(PrintStream err) {
+            this.err = err;
+            return this;
+        }
+
+        public Builder cache(ScriptCache cache) {
+            this.cache = cache;
+            return this;
+        }
+
+        public Builder concurrency(Concurrency concurrency) {
+            this.concurrency = concurrency;
+            return this;
+        }
+
+        // the most loop iterations plus function calls one run can make, 0 for no limit
+        public Builder maxSteps(long steps) {
+            this.maxSteps = steps;
+            return this;
+        }
+
+        // how long one run can take, 0 for no limit. Fibers waiting on a channel don't notice
+        // the deadline until they wake up, since they aren't taking steps
+        public Builder timeoutMillis(long millis) {
+            this.timeoutMillis = millis;
+            return this;
+        }
+
+        // count what Lox code allocates, see getAllocationReport()
+        public Builder trackAllocations(boolean track) {
+            this.trackAllocations = track;
+            return this;
+        }
+
+        // roughly how many bytes one run can allocate, 0 for no limit. Setting this also turns on
+        // allocation tracking. See AllocationTracker for what counts
+        public Builder allocationLimit(long bytes) {
+            this.allocationLimit = bytes;
+            return this;
+        }
+
+        // sample which Lox functions are running every this many microseconds, 0 for no profiling.
+        // See getProfile()
+        public Builder profile(long intervalMicros) {
+            this.profileIntervalMicros = intervalMicros;
+            return this;
+        }
+
+        // count how often each line and function runs and how long it takes, see getHotSpotReport().
+        // Scripts run slower with this on
+        public Builder instrument(boolean instrument) {
+            this.instrument = instrument;
+            return this;
+        }
+
+        // keep the last capacity statements that ran in a ring buffer, see TraceLog and dumpTrace().
+        // 0 for no tracing
+        public Builder trace(int capacity) {
+            this.traceCapacity = capacity;
+            return this;
+        }
+
+        // when a run fails, write the trace here (replacing what was there). Setting this turns
+        // on tracing with TraceLog.DEFAULT_CAPACITY if trace() didn't
+        public Builder traceDumpOnError(Path path) {
+            this.traceDumpPath = path;
+            return this;
+        }
+
+        // stop at the debugger's breakpoints, see LoxDebugger. One debugger can be shared by several isolates
+        public Builder debugger(LoxDebugger debugger) {
+            this.debugger = debugger;
+            return this;
+        }
+
+        // lets scripts read files with readFile, readLines and openFile, which can read anything the
+        // JVM can. Off by default, so scripts you don't trust can't get at them
+        public Builder fileAccess(boolean allowed) {
+            this.fileAccess = allowed;
+            return this;
+        }
+
+        public LoxIsolate build() {
+            // these all work by running a rewritten copy of the tree, and they can't rewrite each other's copies
+            boolean traced = traceCapacity != 0 || traceDumpPath != null;
+            if ((instrument ? 1 : 0) + (traced ? 1 : 0) + (debugger != null ? 1 : 0) > 1) {
+                throw new IllegalStateException("An isolate can only be one of instrumented, traced or debugged");
+            }
+            return new LoxIsolate(this);
+        }
+    }
+
+    private final ErrorReporter reporter;
+    private final Interpreter interpreter;
+
+    // where errors go, the reporter has it too
+    private final PrintStream err;
+
+    // where print statements go, flushed at the end of every run
+    private final OutputSink output;
+
+    // limits for each run, 0 for none. See ExecutionBudget
+    private final long maxSteps;
+    private final long timeoutMillis;
+
+    // counts allocations by kind, or null if this isolate doesn't track them
+    private final AllocationTracker allocations;
+
+    // samples the Lox call stacks while code runs, or null if this isolate isn't profiled
+    private final LoxProfiler profiler;
+
+    // per line and per function counters for instrumented isolates, or null
+    private final ExecutionCounters counters;
+
+    // the last statements that ran, or null if this isolate isn't traced
+    private final TraceLog trace;
+    // the traced copy of every script this isolate has run, so a script that runs again (from a
+    // ScriptCache, or another run(CompiledScript)) isn't copied and numbered all over again.
+    // Weak, so scripts nobody else holds on to can still go
+    private final Map<CompiledScript, List<Statement>> tracedCopies = new WeakHashMap<>();
+    private final Path traceDumpPath;
+
+    // stops the script at breakpoints, or null if this isolate isn't debugged
+    private final LoxDebugger debugger;
+
+    // compiled scripts shared with other isolates, or null to compile every run from scratch
+    private final ScriptCache cache;
+
+    // every imported file that has run in this isolate, so importing it again does nothing
+    private final Set<Path> loadedModules = new HashSet<>();
+
+    // prints to System.out and errors to System.err, like the command line jlox
+    public LoxIsolate() {
+        this(System.out, System.err);
+    }
+
+    public LoxIsolate(PrintStream out, PrintStream err) {
+        this(out, err, null);
+    }
+
+    // isolates that are given the same cache only compile each distinct script once between them
+    public LoxIsolate(PrintStream out, PrintStream err, ScriptCache cache) {
+        this(out, err, cache, Concurrency.SINGLE_THREADED);
+    }
+
+    public LoxIsolate(PrintStream out, PrintStream err, ScriptCache cache, Concurrency concurrency) {
+        this(new Builder().out(out).err(err).cache(cache).concurrency(concurrency));
+    }
+
+    private LoxIsolate(Builder options) {
+        output = options.output != null ? options.output : new OutputSink(options.out, options.outputBufferSize);
+        err = options.err;
+        reporter = new ErrorReporter(options.err);
+        if (options.trackAllocations || options.allocationLimit != 0) {
+            allocations = new AllocationTracker(options.allocationLimit);
+        }
+        else {
+            allocations = null;
+        }
+        profiler = options.profileIntervalMicros != 0 ? new LoxProfiler(options.profileIntervalMicros) : null;
+        counters = options.instrument ? new ExecutionCounters() : null;
+        if (options.traceCapacity != 0 || options.traceDumpPath != null) {
+            trace = new TraceLog(options.traceCapacity != 0 ? options.traceCapacity : TraceLog.DEFAULT_CAPACITY);
+        }
+        else {
+            trace = null;
+        }
+        traceDumpPath = options.traceDumpPath;
+        debugger = options.debugger;
+        interpreter = new Interpreter(reporter, output, options.concurrency, allocations, profiler, options.fileAccess);
+        cache = options.cache;
+        maxSteps = options.maxSteps;
+        timeoutMillis = options.timeoutMillis;
+    }
+
+    // THIS IS THE MAIN LOOP, VERY IMPORTANT
+    // returns OK, COMPILE_ERROR or RUNTIME_ERROR.
+    // imports in source are relative to the working directory
+    public int run(String source) {
+        return run(source, Paths.get(""));
+    }
+
+    // runs a file, its imports are relative to the directory it's in
+    public int runFile(Path file) throws IOException {
+        String source = new String(Files.readAllBytes(file), Charset.defaultCharset());
+        Path directory = file.toAbsolutePath().getParent();
+        return run(source, directory);
+    }
+
+    private int run(String source, Path directory) {
+        try {
+            return compileAndExecute(source, directory);
+        }
+        finally {
+            output.flush();
+        }
+    }
+
+    private int compileAndExecute(String source, Path directory) {
+        // errors only count for the run they happened in
+        reporter.reset();
+
+        // scan, parse and resolve (or find it already done in the cache)
+        CompiledScript script;
+        if (cache != null) {
+            script = cache.getOrCompile(source, reporter);
+        }
+        else {
+            script = CompiledScript.compile(source, reporter);
+        }
+
+        // if there was an error in the source, don't run it
+        if (script == null) {
+            LoxMetrics.ENGINE.compileError();
+            return COMPILE_ERROR;
+        }
+        return execute(script, directory);
+    }
+
+    // runs a script that was already compiled, possibly by another isolate
+    public int run(CompiledScript script) {
+        reporter.reset();
+        try {
+            return execute(script, Paths.get(""));
+        }
+        finally {
+            output.flush();
+        }
+    }
+
+    private int execute(CompiledScript script, Path directory) {
+        long start = System.nanoTime();
+        if (profiler != null) profiler.start();
+        int result = RUNTIME_ERROR;
+        try {
+            result = executeUnprofiled(script, directory);
+            if (result == RUNTIME_ERROR && traceDumpPath != null) dumpTraceOnError();
+            return result;
+        }
+        finally {
+            if (profiler != null) profiler.stop();
+            interpreter.flushMetrics();
+            // an imported file that didn't compile means the run never got past the front end
+            if (result != COMPILE_ERROR) LoxMetrics.ENGINE.ran(System.nanoTime() - start);
+        }
+    }
+
+    private int executeUnprofiled(CompiledScript script, Path directory) {
+        // the limits count from here, so imported files run on the same budget as the script
+        if (maxSteps != 0 || timeoutMillis != 0) {
+            interpreter.startRun(new ExecutionBudget(maxSteps, timeoutMillis));
+        }
+        else {
+            interpreter.startRun(ExecutionBudget.UNLIMITED);
+        }
+        if (allocations != null) allocations.startRun();
+
+        try {
+            // load (in parallel) everything the script imports that this isolate hasn't run yet,
+            // then run those files, each one after the files it imports
+            if (!script.getImports().isEmpty()) {
+                Map<Path, CompiledScript> modules = new ModuleLoader(reporter, loadedModules).load(directory, script.getImports());
+                if (modules == null) {
+                    LoxMetrics.ENGINE.compileError();
+                    return COMPILE_ERROR;
+                }
+
+                for (Map.Entry<Path, CompiledScript> module : modules.entrySet()) {
+                    loadedModules.add(module.getKey());
+                    interpret(module.getValue(), module.getKey().getFileName().toString());
+                    if (reporter.hadRuntimeError()) return RUNTIME_ERROR;
+                }
+            }
+
+            // try to evaluate the syntax tree
+            interpret(script, null);
+        }
+        finally {
+            awaitFibers();
+        }
+
+        // check for runtime errors (in the script or any of its fibers)
+        if (reporter.hadRuntimeError()) return RUNTIME_ERROR;
+        return OK;
+    }
+
+    // runs a script or imported file. The debugger (and tracer) only keep their copy of a script while
+    // something else holds on to the script, so it has to stay reachable until its copy is done running
+    private void interpret(CompiledScript script, String file) {
+        try {
+            interpreter.interpret(statementsToRun(script, file));
+        }
+        finally {
+            Reference.reachabilityFence(script);
+        }
+    }
+
+    // an instrumented (or traced, or debugged) isolate runs a copy of the script with counters (or tracing,
+    // or places for breakpoints) in it, see Instrumenter, Tracer and LoxDebugger
+    private List<Statement> statementsToRun(CompiledScript script, String file) {
+        if (counters != null) return new Instrumenter(counters, file).instrument(script.getStatements());
+        if (trace != null) {
+            return tracedCopies.computeIfAbsent(script, s -> new Tracer(trace, file).trace(s.getStatements()));
+        }
+        if (debugger != null) return debugger.prepare(script, file);
+        return script.getStatements();
+    }
+
+    private void dumpTraceOnError() {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(traceDumpPath))) {
+            trace.dump(out);
+        }
+        catch (IOException e) {
+            err.println("Couldn't write the trace to " + traceDumpPath + ": " + e.getMessage());
+        }
+    }
+
+    // the fibers the script started can still be running after it ends, and the run isn't over
+    // until they're done too
+    private void awaitFibers() {
+        try {
+            interpreter.fibers.await();
+        }
+        catch (InterruptedException e) {
+            // whoever interrupted us gets the result without waiting for the rest
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public ErrorReporter getErrors() {
+        return reporter;
+    }
+
+    // a table of how much the Lox code allocated so far (across all runs), by kind,
+    // or null if this isolate doesn't track allocations
+    public String getAllocationReport() {
+        return allocations == null ? null : allocations.report();
+    }
+
+    // what the profiler has seen so far (across all runs) in collapsed stack format, ready for
+    // a flame graph tool, or null if this isolate isn't profiled. See LoxProfiler
+    public String getProfile() {
+        return profiler == null ? null : profiler.collapsed();
+    }
+
+    public void writeProfile(Path path) throws IOException {
+        if (profiler != null) profiler.writeCollapsed(path);
+    }
+
+    // the topN lines and functions that took the most time (across all runs), or null if this
+    // isolate isn't instrumented. See ExecutionCounters
+    public String getHotSpotReport(int topN) {
+        return counters == null ? null : counters.report(topN);
+    }
+
+    // writes the last statements that ran (see TraceLog for the format), does nothing if this
+    // isolate isn't traced. Fine to call from another thread while a script is running
+    public void dumpTrace(OutputStream out) throws IOException {
+        if (trace != null) trace.dump(out);
+    }
+
+    // writes out anything still buffered, and closes the output if it's a file
+    public void close() {
+        output.close();
+    }
+}
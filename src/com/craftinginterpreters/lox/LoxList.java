@@ -0,0 +1,77 @@
+package com.craftinginterpreters.lox;
+
+import java.util.Arrays;
+
+/**
+ * A native growable array for Lox scripts. Created with List() and used with index syntax, so
+ * var l = List(); listAppend(l, "apple"); print l[0];
+ *
+ * Indexes are whole numbers from 0 up to listLength(l) - 1. Like LoxMap, a list is not safe to
+ * change from two fibers at once, but any number of fibers (or parallelMap workers) can read it.
+ */
+public class LoxList {
+    private static final int INITIAL_CAPACITY = 8;
+
+    private Object[] elements;
+    private int count = 0;
+
+    LoxList() {
+        elements = new Object[INITIAL_CAPACITY];
+    }
+
+    // wraps an array that's already filled in, used by parallelMap for its results
+    LoxList(Object[] elements) {
+        this.elements = elements;
+        count = elements.length;
+    }
+
+    public int size() {
+        return count;
+    }
+
+    // the caller checks that index is in range, see Interpreter.checkListIndex
+    public Object get(int index) {
+        return elements[index];
+    }
+
+    public void set(int index, Object value) {
+        elements[index] = value;
+    }
+
+    public void append(Object value) {
+        if (count == elements.length) {
+            elements = Arrays.copyOf(elements, elements.length * 2);
+        }
+        elements[count++] = value;
+    }
+
+    @Override
+    public String toString() {
+        return "<list of size " + count + ">";
+    }
+
+    // called from the Interpreter constructor to put the list functions into globals
+    static void defineNatives(Interpreter interpreter) {
+        interpreter.defineNative("List", 0, (i, args) -> {
+            i.allocate(AllocationTracker.Kind.COLLECTION, AllocationTracker.LIST_BYTES, null);
+            return new LoxList();
+        });
+
+        interpreter.defineNative("listAppend", 2, (i, args) -> {
+            LoxList list = asList("listAppend", args[0]);
+            i.allocate(AllocationTracker.Kind.COLLECTION, AllocationTracker.LIST_ELEMENT_BYTES, null);
+            list.append(args[1]);
+            return null;
+        });
+
+        interpreter.defineNative("listLength", 1, (i, args) ->
+            (double) asList("listLength", args[0]).size());
+    }
+
+    static LoxList asList(String nativeName, Object o) {
+        if (!(o instanceof LoxList)) {
+            throw new NativeFunction.NativeError(nativeName + " expects a list as its first argument");
+        }
+        return (LoxList) o;
+    }
+}
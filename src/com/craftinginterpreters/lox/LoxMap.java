@@ -0,0 +1,253 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * A native dictionary for Lox scripts. Created with Map() and used with index syntax, so
+ * m["apple"] = 3; print m["apple"];
+ *
+ * Internally this is an open addressing hash table with linear probing rather than a java HashMap.
+ * Each slot remembers what kind of key it holds, so number keys live unboxed in a double[] and
+ * string keys keep their hash in an int[] right next to them. That way a probe only has to touch
+ * the actual key object when the hashes already match.
+ */
+public class LoxMap {
+    private static final int INITIAL_CAPACITY = 8;
+
+    // what kind of key is in each slot. TOMBSTONE marks a removed entry, we can't just
+    // set it back to EMPTY because that would cut off the probe sequence of later keys
+    private static final byte EMPTY = 0;
+    private static final byte TOMBSTONE = 1;
+    private static final byte NUMBER = 2;
+    private static final byte STRING = 3;
+    private static final byte OBJECT = 4;
+
+    private byte[] kinds;
+    private int[] hashes;
+    private double[] numberKeys;
+    private Object[] objectKeys;
+    private Object[] values;
+
+    // number of live entries
+    private int count = 0;
+
+    // number of slots that aren't EMPTY (live entries + tombstones), this is what decides when to grow
+    private int used = 0;
+
+    LoxMap() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    public int size() {
+        return count;
+    }
+
+    // returns the value for this key, or null (nil) if the key isn't in the map
+    public Object get(Object key) {
+        int slot = find(key);
+        return slot < 0 ? null : values[slot];
+    }
+
+    public boolean containsKey(Object key) {
+        return find(key) >= 0;
+    }
+
+    public void put(Object key, Object value) {
+        // grow before inserting so there is always at least one EMPTY slot to stop probing on
+        if ((used + 1) * 4 > kinds.length * 3) {
+            // if most of the used slots are tombstones, rehashing at the same size is enough
+            rehash(count * 2 >= used ? kinds.length * 2 : kinds.length);
+        }
+
+        if (key instanceof Double) {
+            putNumber((double) key, value);
+        }
+        else if (key instanceof LoxString) {
+            putObject(STRING, key, value);
+        }
+        else {
+            putObject(OBJECT, key, value);
+        }
+    }
+
+    // returns true if something was actually removed
+    public boolean remove(Object key) {
+        int slot = find(key);
+        if (slot < 0) return false;
+
+        kinds[slot] = TOMBSTONE;
+        objectKeys[slot] = null;
+        values[slot] = null;
+        count--;
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "<map of size " + count + ">";
+    }
+
+    // ============================= probing ============================= //
+
+    // finds the slot holding this key, or -1 if it isn't there
+    private int find(Object key) {
+        if (key instanceof Double) {
+            return findNumber((double) key);
+        }
+
+        byte kind = key instanceof LoxString ? STRING : OBJECT;
+        int hash = hashObject(key);
+        int mask = kinds.length - 1;
+        int slot = hash & mask;
+        while (kinds[slot] != EMPTY) {
+            if (kinds[slot] == kind && hashes[slot] == hash && key.equals(objectKeys[slot])) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int findNumber(double key) {
+        long bits = Double.doubleToLongBits(key);
+        int mask = kinds.length - 1;
+        int slot = hashNumber(bits) & mask;
+        while (kinds[slot] != EMPTY) {
+            // compare bit patterns so we agree with Double.equals, which is what Lox == uses
+            if (kinds[slot] == NUMBER && Double.doubleToLongBits(numberKeys[slot]) == bits) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void putNumber(double key, Object value) {
+        long bits = Double.doubleToLongBits(key);
+        int hash = hashNumber(bits);
+        int mask = kinds.length - 1;
+        int slot = hash & mask;
+
+        // remember the first tombstone we pass so we can reuse it if the key turns out to be new
+        int tombstone = -1;
+        while (kinds[slot] != EMPTY) {
+            if (kinds[slot] == NUMBER && Double.doubleToLongBits(numberKeys[slot]) == bits) {
+                values[slot] = value;
+                return;
+            }
+            if (kinds[slot] == TOMBSTONE && tombstone < 0) tombstone = slot;
+            slot = (slot + 1) & mask;
+        }
+
+        if (tombstone >= 0) slot = tombstone;
+        else used++;
+        kinds[slot] = NUMBER;
+        hashes[slot] = hash;
+        numberKeys[slot] = key;
+        values[slot] = value;
+        count++;
+    }
+
+    private void putObject(byte kind, Object key, Object value) {
+        int hash = hashObject(key);
+        int mask = kinds.length - 1;
+        int slot = hash & mask;
+
+        int tombstone = -1;
+        while (kinds[slot] != EMPTY) {
+            if (kinds[slot] == kind && hashes[slot] == hash && key.equals(objectKeys[slot])) {
+                values[slot] = value;
+                return;
+            }
+            if (kinds[slot] == TOMBSTONE && tombstone < 0) tombstone = slot;
+            slot = (slot + 1) & mask;
+        }
+
+        if (tombstone >= 0) slot = tombstone;
+        else used++;
+        kinds[slot] = kind;
+        hashes[slot] = hash;
+        objectKeys[slot] = key;
+        values[slot] = value;
+        count++;
+    }
+
+    private void allocate(int capacity) {
+        kinds = new byte[capacity];
+        hashes = new int[capacity];
+        numberKeys = new double[capacity];
+        objectKeys = new Object[capacity];
+        values = new Object[capacity];
+    }
+
+    // reinsert every live entry into fresh arrays, this also throws away all the tombstones.
+    // we already know the keys are distinct and have their hashes, so no need to compare anything
+    private void rehash(int capacity) {
+        byte[] oldKinds = kinds;
+        int[] oldHashes = hashes;
+        double[] oldNumberKeys = numberKeys;
+        Object[] oldObjectKeys = objectKeys;
+        Object[] oldValues = values;
+
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int j = 0; j < oldKinds.length; j++) {
+            if (oldKinds[j] == EMPTY || oldKinds[j] == TOMBSTONE) continue;
+
+            int slot = oldHashes[j] & mask;
+            while (kinds[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            kinds[slot] = oldKinds[j];
+            hashes[slot] = oldHashes[j];
+            numberKeys[slot] = oldNumberKeys[j];
+            objectKeys[slot] = oldObjectKeys[j];
+            values[slot] = oldValues[j];
+        }
+        used = count;
+    }
+
+    // linear probing hates clustered hashes, so mix the bits around a bit before masking.
+    // LoxStrings hash their flat java String, which caches its hashCode, so this doesn't rescan the characters
+    private static int hashObject(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static int hashNumber(long bits) {
+        // small integers only differ in the high bits of a double, so fold those down
+        long h = bits * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    // ============================= natives ============================= //
+
+    // called from the Interpreter constructor to put the map functions into globals
+    static void defineNatives(Interpreter interpreter) {
+        interpreter.defineNative("Map", 0, (i, args) -> {
+            i.allocate(AllocationTracker.Kind.COLLECTION, AllocationTracker.MAP_BYTES, null);
+            return new LoxMap();
+        });
+
+        interpreter.defineNative("mapHas", 2, (i, args) ->
+            asMap("mapHas", args[0]).containsKey(checkKey("mapHas", args[1])));
+
+        interpreter.defineNative("mapRemove", 2, (i, args) ->
+            asMap("mapRemove", args[0]).remove(checkKey("mapRemove", args[1])));
+
+        interpreter.defineNative("mapSize", 1, (i, args) ->
+            (double) asMap("mapSize", args[0]).size());
+    }
+
+    private static LoxMap asMap(String nativeName, Object o) {
+        if (!(o instanceof LoxMap)) {
+            throw new NativeFunction.NativeError(nativeName + " expects a map as its first argument");
+        }
+        return (LoxMap) o;
+    }
+
+    private static Object checkKey(String nativeName, Object key) {
+        if (key == null) {
+            throw new NativeFunction.NativeError(nativeName + " was given a nil key");
+        }
+        return key;
+    }
+}
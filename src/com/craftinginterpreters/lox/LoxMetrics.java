@@ -0,0 +1,251 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Engine wide counters for everything the interpreter does, shared by every isolate in the JVM.
+ * Programs that embed Lox call LoxMetrics.registerMBean() once to publish them over JMX (see
+ * LoxMetricsMBean for what's in it), the command line does it with -Dlox.jmx=true. Starting the
+ * platform MBean server takes longer than running a small script, so it doesn't happen on its own.
+ *
+ * Everything is a LongAdder so isolates on many threads can count at once without fighting over
+ * a cache line. The counts that happen on every call (calls and instances) are first counted in
+ * a plain field on the Interpreter and only added here when it's done, see Interpreter.flushMetrics.
+ */
+public class LoxMetrics implements LoxMetricsMBean {
+    static final LoxMetrics ENGINE = new LoxMetrics();
+
+    private static boolean registered = false;
+
+    // the counters, for reading them without going through JMX
+    public static LoxMetrics get() {
+        return ENGINE;
+    }
+
+    // publishes the counters as com.craftinginterpreters.lox:type=Metrics on the platform MBean
+    // server. Calling this again does nothing
+    public static synchronized void registerMBean() {
+        if (registered) return;
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(ENGINE,
+                new ObjectName("com.craftinginterpreters.lox:type=Metrics"));
+        }
+        catch (InstanceAlreadyExistsException e) {
+            // another copy of these classes (from some other class loader) got there first.
+            // The counters still work, they just aren't visible over JMX
+        }
+        catch (JMException e) {
+            throw new IllegalStateException("Couldn't register the Lox metrics MBean", e);
+        }
+        registered = true;
+    }
+
+    // bucket k holds runs under 2^k ms
+    private static final int BUCKETS = 21;
+
+    private final LongAdder scriptsRun = new LongAdder();
+    private final LongAdder compileErrors = new LongAdder();
+    private final LongAdder runtimeErrors = new LongAdder();
+    private final LongAdder scriptsCompiled = new LongAdder();
+    private final LongAdder scanNanos = new LongAdder();
+    private final LongAdder parseNanos = new LongAdder();
+    private final LongAdder resolveNanos = new LongAdder();
+    private final LongAdder executionNanos = new LongAdder();
+    private final LongAdder[] executionHistogram = new LongAdder[BUCKETS + 1];
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder instances = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+
+    private LoxMetrics() {
+        for (int k = 0; k < executionHistogram.length; k++) {
+            executionHistogram[k] = new LongAdder();
+        }
+    }
+
+    // ================================= Counting ========================= //
+
+    void scanned(long nanos) {
+        scanNanos.add(nanos);
+    }
+
+    void parsed(long nanos) {
+        parseNanos.add(nanos);
+    }
+
+    void resolved(long nanos) {
+        scriptsCompiled.increment();
+        resolveNanos.add(nanos);
+    }
+
+    void compileError() {
+        compileErrors.increment();
+    }
+
+    void runtimeError() {
+        runtimeErrors.increment();
+    }
+
+    void ran(long nanos) {
+        scriptsRun.increment();
+        executionNanos.add(nanos);
+        executionHistogram[bucket(nanos / 1_000_000)].increment();
+    }
+
+    void executed(long callCount, long instanceCount) {
+        if (callCount != 0) calls.add(callCount);
+        if (instanceCount != 0) instances.add(instanceCount);
+    }
+
+    void cacheHit() {
+        cacheHits.increment();
+    }
+
+    void cacheMiss() {
+        cacheMisses.increment();
+    }
+
+    private static int bucket(long millis) {
+        // the number of bits millis takes, so 0 goes in bucket 0, 1 in bucket 1, 2 and 3 in bucket 2...
+        return Math.min(BUCKETS, 64 - Long.numberOfLeadingZeros(millis));
+    }
+
+    // ================================= The MBean ========================= //
+
+    @Override
+    public long getScriptsRun() {
+        return scriptsRun.sum();
+    }
+
+    @Override
+    public long getCompileErrors() {
+        return compileErrors.sum();
+    }
+
+    @Override
+    public long getRuntimeErrors() {
+        return runtimeErrors.sum();
+    }
+
+    @Override
+    public long getScriptsCompiled() {
+        return scriptsCompiled.sum();
+    }
+
+    @Override
+    public double getScanMillis() {
+        return scanNanos.sum() / 1e6;
+    }
+
+    @Override
+    public double getParseMillis() {
+        return parseNanos.sum() / 1e6;
+    }
+
+    @Override
+    public double getResolveMillis() {
+        return resolveNanos.sum() / 1e6;
+    }
+
+    @Override
+    public double getExecutionMillisTotal() {
+        return executionNanos.sum() / 1e6;
+    }
+
+    @Override
+    public double getExecutionMillisMean() {
+        long runs = scriptsRun.sum();
+        return runs == 0 ? 0 : getExecutionMillisTotal() / runs;
+    }
+
+    @Override
+    public double getExecutionMillisP50() {
+        return percentile(0.50);
+    }
+
+    @Override
+    public double getExecutionMillisP90() {
+        return percentile(0.90);
+    }
+
+    @Override
+    public double getExecutionMillisP99() {
+        return percentile(0.99);
+    }
+
+    // the limit of the bucket the run at this fraction of the way through the histogram is in
+    private double percentile(double fraction) {
+        long[] histogram = getExecutionMillisHistogram();
+        long total = 0;
+        for (long count : histogram) total += count;
+        if (total == 0) return 0;
+
+        long wanted = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for (int k = 0; k < histogram.length; k++) {
+            seen += histogram[k];
+            if (seen >= wanted) return k < BUCKETS ? 1L << k : Double.POSITIVE_INFINITY;
+        }
+        return Double.POSITIVE_INFINITY;
+    }
+
+    @Override
+    public long[] getExecutionMillisHistogram() {
+        long[] counts = new long[executionHistogram.length];
+        for (int k = 0; k < counts.length; k++) {
+            counts[k] = executionHistogram[k].sum();
+        }
+        return counts;
+    }
+
+    @Override
+    public long[] getExecutionMillisBucketLimits() {
+        long[] limits = new long[BUCKETS];
+        for (int k = 0; k < BUCKETS; k++) {
+            limits[k] = 1L << k;
+        }
+        return limits;
+    }
+
+    @Override
+    public long getCallsExecuted() {
+        return calls.sum();
+    }
+
+    @Override
+    public long getInstancesAllocated() {
+        return instances.sum();
+    }
+
+    @Override
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    @Override
+    public double getCacheHitRate() {
+        long hits = cacheHits.sum();
+        long lookups = hits + cacheMisses.sum();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    @Override
+    public void resetMetrics() {
+        LongAdder[] all = {
+            scriptsRun, compileErrors, runtimeErrors, scriptsCompiled, scanNanos, parseNanos, resolveNanos,
+            executionNanos, calls, instances, cacheHits, cacheMisses
+        };
+        for (LongAdder adder : all) adder.reset();
+        for (LongAdder adder : executionHistogram) adder.reset();
+    }
+}
@@ -0,0 +1,42 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * What LoxMetrics shows over JMX (in jconsole, VisualVM or anything else that reads MBeans),
+ * under com.craftinginterpreters.lox:type=Metrics. Everything counts from when the JVM started
+ * (or the last resetMetrics()) across every isolate in the JVM.
+ */
+public interface LoxMetricsMBean {
+    // runs of a script (or a REPL line) that got past the front end, and the ones that didn't
+    long getScriptsRun();
+    long getCompileErrors();
+    long getRuntimeErrors();
+
+    // the front end, for every script that actually got compiled (not found in a cache)
+    long getScriptsCompiled();
+    double getScanMillis();
+    double getParseMillis();
+    double getResolveMillis();
+
+    // how long runs take, not counting the front end
+    double getExecutionMillisTotal();
+    double getExecutionMillisMean();
+    // upper bounds from the histogram, so these are at most a factor of 2 too high
+    double getExecutionMillisP50();
+    double getExecutionMillisP90();
+    double getExecutionMillisP99();
+    // run counts per bucket, bucket k has the runs that took less than getExecutionMillisBucketLimits()[k]
+    // (and at least the limit before it). The last bucket has everything slower
+    long[] getExecutionMillisHistogram();
+    long[] getExecutionMillisBucketLimits();
+
+    // Lox function calls (tail calls included) and instances made
+    long getCallsExecuted();
+    long getInstancesAllocated();
+
+    // lookups in every ScriptCache
+    long getCacheHits();
+    long getCacheMisses();
+    double getCacheHitRate();
+
+    void resetMetrics();
+}
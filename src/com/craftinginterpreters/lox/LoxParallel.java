@@ -0,0 +1,163 @@
+package com.craftinginterpreters.lox;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The data parallel natives, parallelMap(list, fn) and parallelReduce(list, fn, init). These split
+ * the list into chunks and call fn on the chunks from the worker threads of a ForkJoinPool.
+ *
+ * Every chunk runs on its own Interpreter from fork(), so the workers never share a currentEnv.
+ * They do share the globals and whatever objects fn can reach, so fn should only read those.
+ * Pure number crunching callbacks scale with the number of cores.
+ *
+ * In a SINGLE_THREADED isolate the globals and instances aren't safe to share, so both natives
+ * just loop over the list on the calling thread instead.
+ */
+public class LoxParallel {
+    private static final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+    // how many chunks we aim for per worker, more than one so a slow chunk doesn't hold everyone up
+    private static final int CHUNKS_PER_WORKER = 8;
+
+    // returns a new list with fn(element) for every element of list, in the same order
+    static LoxList map(Interpreter parent, LoxList list, LoxCallable fn) {
+        Object[] results = new Object[list.size()];
+        if (parent.concurrency != LoxIsolate.Concurrency.CONCURRENT) {
+            for (int j = 0; j < results.length; j++) {
+                results[j] = fn.call(parent, new Object[] { list.get(j) });
+            }
+        }
+        else if (results.length > 0) {
+            pool.invoke(new MapTask(parent, list, fn, results, 0, results.length, chunkSize(results.length)));
+        }
+        return new LoxList(results);
+    }
+
+    // combines the elements with fn, which has to be associative since the chunks get combined
+    // in a tree rather than left to right. init is combined in once at the very start
+    static Object reduce(Interpreter parent, LoxList list, LoxCallable fn, Object init) {
+        int size = list.size();
+        if (parent.concurrency != LoxIsolate.Concurrency.CONCURRENT) {
+            Object total = init;
+            for (int j = 0; j < size; j++) {
+                total = fn.call(parent, new Object[] { total, list.get(j) });
+            }
+            return total;
+        }
+        if (size == 0) return init;
+
+        Object total = pool.invoke(new ReduceTask(parent, list, fn, 0, size, chunkSize(size)));
+        return fn.call(parent, new Object[] { init, total });
+    }
+
+    private static int chunkSize(int size) {
+        int chunks = pool.getParallelism() * CHUNKS_PER_WORKER;
+        return Math.max(1, (size + chunks - 1) / chunks);
+    }
+
+    // each worker writes its own range of results, and invoke() waiting for all of them
+    // is what makes the writes visible to the thread that asked for the map
+    private static class MapTask extends RecursiveAction {
+        private final Interpreter parent;
+        private final LoxList list;
+        private final LoxCallable fn;
+        private final Object[] results;
+        private final int from, to, chunkSize;
+
+        MapTask(Interpreter parent, LoxList list, LoxCallable fn, Object[] results, int from, int to, int chunkSize) {
+            this.parent = parent;
+            this.list = list;
+            this.fn = fn;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > chunkSize) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new MapTask(parent, list, fn, results, from, mid, chunkSize),
+                          new MapTask(parent, list, fn, results, mid, to, chunkSize));
+                return;
+            }
+
+            Interpreter context = parent.fork();
+            try {
+                for (int j = from; j < to; j++) {
+                    results[j] = fn.call(context, new Object[] { list.get(j) });
+                }
+            }
+            finally {
+                context.finishFork();
+            }
+        }
+    }
+
+    private static class ReduceTask extends RecursiveTask<Object> {
+        private final Interpreter parent;
+        private final LoxList list;
+        private final LoxCallable fn;
+        private final int from, to, chunkSize;
+
+        ReduceTask(Interpreter parent, LoxList list, LoxCallable fn, int from, int to, int chunkSize) {
+            this.parent = parent;
+            this.list = list;
+            this.fn = fn;
+            this.from = from;
+            this.to = to;
+            this.chunkSize = chunkSize;
+        }
+
+        @Override
+        protected Object compute() {
+            if (to - from > chunkSize) {
+                int mid = (from + to) >>> 1;
+                ReduceTask right = new ReduceTask(parent, list, fn, mid, to, chunkSize);
+                right.fork();
+                Object left = new ReduceTask(parent, list, fn, from, mid, chunkSize).compute();
+                Interpreter context = parent.fork();
+                try {
+                    return fn.call(context, new Object[] { left, right.join() });
+                }
+                finally {
+                    context.finishFork();
+                }
+            }
+
+            // a chunk is never empty, so it starts from its first element
+            Interpreter context = parent.fork();
+            try {
+                Object total = list.get(from);
+                for (int j = from + 1; j < to; j++) {
+                    total = fn.call(context, new Object[] { total, list.get(j) });
+                }
+                return total;
+            }
+            finally {
+                context.finishFork();
+            }
+        }
+    }
+
+    // called from the Interpreter constructor to put the parallel functions into globals
+    static void defineNatives(Interpreter interpreter) {
+        interpreter.defineNative("parallelMap", 2, (i, args) ->
+            map(i, LoxList.asList("parallelMap", args[0]), asFunction("parallelMap", args[1], 1)));
+
+        interpreter.defineNative("parallelReduce", 3, (i, args) ->
+            reduce(i, LoxList.asList("parallelReduce", args[0]), asFunction("parallelReduce", args[1], 2), args[2]));
+    }
+
+    // natives skip the usual arity check in Interpreter.checkCallee, so do it here
+    private static LoxCallable asFunction(String nativeName, Object o, int arity) {
+        if (!(o instanceof LoxCallable) || ((LoxCallable) o).arity() != arity) {
+            throw new NativeFunction.NativeError(nativeName + " expects a function that takes " +
+                arity + (arity == 1 ? " argument" : " arguments"));
+        }
+        return (LoxCallable) o;
+    }
+}
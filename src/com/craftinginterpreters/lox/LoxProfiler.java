@@ -0,0 +1,136 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A sampling profiler for Lox code. While an isolate is running, a background thread wakes up
+ * every interval, looks at the CallStack of every interpreter the isolate has (the main one plus
+ * any fibers and parallel workers) and counts how many times it saw each stack.
+ *
+ * The result is in the "collapsed stack" format that flamegraph.pl, speedscope and friends read:
+ * one line per distinct stack, frames outermost first and separated by ;, then the sample count.
+ * Frames are function name:line of its declaration, like
+ *
+ *     <script>;main:12;fib:3;fib:3 41
+ *
+ * Top level code shows up as <script>, and code running on other threads as <fiber>.
+ */
+class LoxProfiler {
+    // how often stacks get sampled, when nobody picks
+    static final long DEFAULT_INTERVAL_MICROS = 1000;
+
+    private final long intervalNanos;
+
+    // every interpreter's stack. Forks come and go, so this holds them weakly and a finished
+    // fiber's stack goes away with its interpreter
+    private final Set<CallStack> stacks = Collections.newSetFromMap(Collections.synchronizedMap(new WeakHashMap<>()));
+
+    // the stack of the isolate's own interpreter, which is sampled even with nothing on it
+    private CallStack root;
+
+    // collapsed stack -> how many samples had it, across all runs. Guarded by this
+    private final Map<String, Long> samples = new HashMap<>();
+    private long sampleCount = 0;
+
+    private Thread sampler;
+    private volatile boolean running = false;
+
+    LoxProfiler(long intervalMicros) {
+        this.intervalNanos = intervalMicros * 1000;
+    }
+
+    // called by the Interpreter constructors
+    void register(CallStack stack, boolean isRoot) {
+        if (isRoot) root = stack;
+        stacks.add(stack);
+    }
+
+    // LoxIsolate samples only while it's running something
+    void start() {
+        running = true;
+        sampler = new Thread(this::sampleLoop, "lox-profiler");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    void stop() {
+        running = false;
+        LockSupport.unpark(sampler);
+        try {
+            sampler.join();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        sampler = null;
+    }
+
+    private void sampleLoop() {
+        while (running) {
+            sample();
+            LockSupport.parkNanos(intervalNanos);
+        }
+    }
+
+    private void sample() {
+        List<CallStack> current;
+        synchronized (stacks) {
+            current = new ArrayList<>(stacks);
+        }
+
+        // build all the lines first so the lock is only held for the counting
+        List<String> seen = new ArrayList<>(current.size());
+        for (CallStack stack : current) {
+            // idle forks (finished fibers waiting to be garbage collected) aren't running anything
+            if (stack != root && stack.depth() == 0) continue;
+
+            StringBuilder line = new StringBuilder(stack == root ? "<script>" : "<fiber>");
+            for (LoxFunction function : stack.snapshot()) {
+                // a slot that was being changed as we looked
+                if (function == null) continue;
+                Token name = function.name();
+                line.append(';').append(name.lexeme).append(':').append(name.line);
+            }
+            seen.add(line.toString());
+        }
+
+        synchronized (this) {
+            for (String line : seen) {
+                samples.merge(line, 1L, Long::sum);
+            }
+            sampleCount++;
+        }
+    }
+
+    // how many times the sampler has woken up
+    synchronized long getSampleCount() {
+        return sampleCount;
+    }
+
+    // everything sampled so far in collapsed stack format, sorted so runs are easy to diff
+    synchronized String collapsed() {
+        List<String> lines = new ArrayList<>(samples.keySet());
+        Collections.sort(lines);
+
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines) {
+            sb.append(line).append(' ').append(samples.get(line)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    void writeCollapsed(Path path) throws IOException {
+        Files.write(path, collapsed().getBytes(StandardCharsets.UTF_8));
+    }
+}
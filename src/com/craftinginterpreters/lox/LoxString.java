@@ -0,0 +1,207 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayDeque;
+
+/**
+ * The runtime representation of a Lox string. String literals from the Scanner and the result of
+ * every "a" + "b" are LoxStrings.
+ *
+ * Concatenating two long strings doesn't copy anything, it just makes a rope node that points at
+ * both halves. The characters only get copied into one flat java String the first time someone
+ * actually needs them (printing, charAt, equality, hashing), and after that the children are dropped.
+ * So a loop doing s = s + piece costs linear time overall instead of copying s every iteration.
+ */
+public final class LoxString implements CharSequence {
+    // below this length it's cheaper to just copy the characters than to make a rope node
+    private static final int MIN_ROPE_LENGTH = 64;
+
+    // the flattened characters, null while this is still a rope node.
+    // volatile since a string can be flattened by one thread and read by another
+    private volatile String flat;
+
+    // the two halves, only set while this is an unflattened rope node
+    private LoxString left;
+    private LoxString right;
+
+    private final int length;
+
+    // true if this is the one copy of its contents in the StringTable
+    private final boolean interned;
+
+    LoxString(String value) {
+        this(value, false);
+    }
+
+    private LoxString(String value, boolean interned) {
+        flat = value;
+        length = value.length();
+        this.interned = interned;
+    }
+
+    private LoxString(LoxString left, LoxString right) {
+        this.left = left;
+        this.right = right;
+        length = left.length + right.length;
+        interned = false;
+    }
+
+    // only the StringTable should make these
+    static LoxString interned(String value) {
+        return new LoxString(value, true);
+    }
+
+    boolean isInterned() {
+        return interned;
+    }
+
+    // false while this is still an unflattened rope
+    boolean isFlat() {
+        return flat != null;
+    }
+
+    // this is what the Interpreter calls for "a" + "b"
+    static LoxString concat(LoxString a, LoxString b) {
+        if (a.length == 0) return b;
+        if (b.length == 0) return a;
+
+        // short strings just get copied
+        if (a.length + b.length < MIN_ROPE_LENGTH) {
+            return new LoxString(a.toString() + b.toString());
+        }
+
+        // the common case is building a string up a small piece at a time, so if a is a rope
+        // ending in a short flat piece, glue b onto that piece instead of making a long chain
+        // of tiny nodes. a itself is left alone since other variables might still point at it
+        if (b.length < MIN_ROPE_LENGTH && a.flat == null) {
+            LoxString aLeft, aRight;
+            synchronized (a) {
+                aLeft = a.left;
+                aRight = a.right;
+            }
+            if (aLeft != null && aRight.length + b.length < MIN_ROPE_LENGTH) {
+                return new LoxString(aLeft, new LoxString(aRight.toString() + b.toString()));
+            }
+        }
+        return new LoxString(a, b);
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return new LoxString(toString().substring(start, end));
+    }
+
+    // the flat contents of this string, flattening the rope first if needed
+    @Override
+    public String toString() {
+        String s = flat;
+        if (s != null) return s;
+        return flatten();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof LoxString)) return false;
+
+        LoxString other = (LoxString) o;
+        // there's only ever one interned copy of some contents, so two different ones can't be equal
+        if (interned && other.interned) return false;
+        if (length != other.length) return false;
+        return toString().equals(other.toString());
+    }
+
+    // java Strings cache their hash, so after the first call this is just a field read
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    // copy all the leaves into one String. Ropes built in a loop are very deep (one level per
+    // concatenation), so this walks the tree with an explicit stack instead of recursing
+    private synchronized String flatten() {
+        if (flat != null) return flat;
+
+        StringBuilder sb = new StringBuilder(length);
+        ArrayDeque<LoxString> stack = new ArrayDeque<>();
+        stack.push(right);
+        stack.push(left);
+        while (!stack.isEmpty()) {
+            LoxString node = stack.pop();
+            String s = node.flat;
+            if (s != null) {
+                sb.append(s);
+                continue;
+            }
+
+            // another thread could be flattening this node at the same time, so grab a consistent view
+            LoxString nodeLeft, nodeRight;
+            synchronized (node) {
+                s = node.flat;
+                nodeLeft = node.left;
+                nodeRight = node.right;
+            }
+            if (s != null) {
+                sb.append(s);
+            }
+            else {
+                stack.push(nodeRight);
+                stack.push(nodeLeft);
+            }
+        }
+
+        flat = sb.toString();
+        // let go of the children so the rope can be garbage collected
+        left = null;
+        right = null;
+        return flat;
+    }
+
+    // ============================= string builder ============================= //
+
+    // a mutable buffer for scripts that build up a string piece by piece, made by StringBuilder()
+    static class Builder {
+        private final StringBuilder sb = new StringBuilder();
+
+        @Override
+        public String toString() {
+            return "<string builder>";
+        }
+    }
+
+    // called from the Interpreter constructor to put the string builder functions into globals
+    static void defineNatives(Interpreter interpreter) {
+        interpreter.defineNative("StringBuilder", 0, (i, args) -> new Builder());
+
+        // appends any value the same way print would show it, returns the builder so calls can chain
+        interpreter.defineNative("builderAppend", 2, (i, args) -> {
+            Builder b = asBuilder("builderAppend", args[0]);
+            String s = i.stringify(args[1]);
+            i.allocate(AllocationTracker.Kind.STRING, s.length(), null);
+            b.sb.append(s);
+            return b;
+        });
+
+        interpreter.defineNative("builderLength", 1, (i, args) ->
+            (double) asBuilder("builderLength", args[0]).sb.length());
+
+        interpreter.defineNative("builderToString", 1, (i, args) ->
+            StringTable.runtime(new LoxString(asBuilder("builderToString", args[0]).sb.toString())));
+    }
+
+    private static Builder asBuilder(String nativeName, Object o) {
+        if (!(o instanceof Builder)) {
+            throw new NativeFunction.NativeError(nativeName + " expects a string builder as its first argument");
+        }
+        return (Builder) o;
+    }
+}
@@ -0,0 +1,152 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Loads the files a script imports with import "file.lox";, and everything those files import.
+ *
+ * Scanning and parsing one file doesn't depend on any other file, so every file is read, scanned
+ * and parsed on a thread pool as soon as some other file is seen importing it. Once the whole
+ * import graph is parsed, the files get resolved one at a time in dependency order (a file's
+ * imports before the file itself), which is also the order LoxIsolate runs them in.
+ *
+ * Each file is only loaded once per isolate, no matter how many files import it.
+ */
+class ModuleLoader {
+    private static final ExecutorService pool = Executors.newFixedThreadPool(
+        Runtime.getRuntime().availableProcessors(), r -> {
+            // daemon so the pool doesn't keep the JVM alive once the script is done
+            Thread t = new Thread(r, "lox-module-loader");
+            t.setDaemon(true);
+            return t;
+        });
+
+    // a file after scanning and parsing, with the files it imports
+    private static class ParsedFile {
+        final List<Statement> statements;
+        final int sourceLength;
+        // reports errors with this file's name on them
+        final ErrorReporter reporter;
+        // the files it imports, each with the path token from its import statement
+        final Map<Path, Token> imports = new LinkedHashMap<>();
+
+        ParsedFile(List<Statement> statements, int sourceLength, ErrorReporter reporter) {
+            this.statements = statements;
+            this.sourceLength = sourceLength;
+            this.reporter = reporter;
+        }
+    }
+
+    private final ErrorReporter reporter;
+
+    // files that already ran in this isolate, these count as loaded and aren't looked at again
+    private final Set<Path> alreadyLoaded;
+
+    // every file we've started parsing, the future gives back null if the file had errors
+    private final Map<Path, CompletableFuture<ParsedFile>> files = new ConcurrentHashMap<>();
+
+    ModuleLoader(ErrorReporter reporter, Set<Path> alreadyLoaded) {
+        this.reporter = reporter;
+        this.alreadyLoaded = alreadyLoaded;
+    }
+
+    // loads everything the imports need, relative to directory. Returns the compiled files in the
+    // order they should run, or null if any of them had errors (which went to the reporter)
+    Map<Path, CompiledScript> load(Path directory, List<Token> imports) {
+        Map<Path, Token> roots = new LinkedHashMap<>();
+        for (Token importPath : imports) {
+            Path path = pathOf(directory, importPath);
+            roots.putIfAbsent(path, importPath);
+            startParsing(path, importPath, reporter);
+        }
+
+        // every file submits the files it imports before its own future completes. So once all the
+        // futures we know about are done and no new ones showed up, the whole graph is parsed
+        int seen;
+        do {
+            seen = files.size();
+            CompletableFuture.allOf(files.values().toArray(new CompletableFuture<?>[0])).join();
+        } while (files.size() != seen);
+
+        if (reporter.hadError()) return null;
+
+        // depth first over the import graph, adding each file after everything it imports
+        Map<Path, CompiledScript> ordered = new LinkedHashMap<>();
+        Set<Path> inProgress = new HashSet<>();
+        for (Map.Entry<Path, Token> root : roots.entrySet()) {
+            if (!resolveInOrder(root.getKey(), root.getValue(), reporter, inProgress, ordered)) return null;
+        }
+        return ordered;
+    }
+
+    // importer is the reporter of the file with the import statement, so a missing file gets blamed on it
+    private void startParsing(Path path, Token importedBy, ErrorReporter importer) {
+        if (alreadyLoaded.contains(path)) return;
+        files.computeIfAbsent(path, p -> CompletableFuture.supplyAsync(() -> parse(p, importedBy, importer), pool));
+    }
+
+    // runs on the pool. Returns null if the file couldn't be read or parsed
+    private ParsedFile parse(Path path, Token importedBy, ErrorReporter importer) {
+        String source;
+        try {
+            source = new String(Files.readAllBytes(path), Charset.defaultCharset());
+        }
+        catch (IOException e) {
+            importer.error(importedBy, "Can't read imported file " + path);
+            return null;
+        }
+
+        ErrorReporter fileReporter = reporter.forFile(path.getFileName().toString());
+        List<Statement> statements = CompiledScript.parse(source, fileReporter);
+        if (statements == null) return null;
+
+        ParsedFile file = new ParsedFile(statements, source.length(), fileReporter);
+        for (Statement s : statements) {
+            if (s instanceof Statement.ImportStatement) {
+                Token importPath = ((Statement.ImportStatement) s).path;
+                Path imported = pathOf(path.getParent(), importPath);
+                file.imports.putIfAbsent(imported, importPath);
+                startParsing(imported, importPath, fileReporter);
+            }
+        }
+        return file;
+    }
+
+    // returns false if there was an error (an import cycle or a resolver error)
+    private boolean resolveInOrder(Path path, Token importedBy, ErrorReporter importer,
+                                   Set<Path> inProgress, Map<Path, CompiledScript> ordered) {
+        if (alreadyLoaded.contains(path) || ordered.containsKey(path)) return true;
+        if (!inProgress.add(path)) {
+            importer.error(importedBy, "Import cycle, " + path.getFileName() + " ends up importing itself");
+            return false;
+        }
+
+        ParsedFile file = files.get(path).join();
+        for (Map.Entry<Path, Token> imported : file.imports.entrySet()) {
+            if (!resolveInOrder(imported.getKey(), imported.getValue(), file.reporter, inProgress, ordered)) return false;
+        }
+
+        CompiledScript script = CompiledScript.resolve(file.statements, file.sourceLength, file.reporter);
+        if (script == null) return false;
+
+        inProgress.remove(path);
+        ordered.put(path, script);
+        return true;
+    }
+
+    private static Path pathOf(Path directory, Token importPath) {
+        return directory.resolve(importPath.literal.toString()).toAbsolutePath().normalize();
+    }
+}
@@ -0,0 +1,54 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * A function that is implemented in Java instead of Lox, like clock() or Map().
+ * These get put into the global environment by the Interpreter constructor.
+ */
+public class NativeFunction implements LoxCallable {
+
+    // the Java code that runs when Lox calls this native
+    interface Body {
+        Object call(Interpreter i, Object[] args);
+    }
+
+    // natives don't know which token called them, so when they get bad arguments they throw
+    // this instead, and Interpreter.visitCallExpression turns it into a RuntimeError at the call site
+    static class NativeError extends RuntimeException {
+        // see RuntimeError.counted
+        final boolean counted;
+
+        NativeError(String message) {
+            this(message, false);
+        }
+
+        NativeError(String message, boolean counted) {
+            super(message);
+            this.counted = counted;
+        }
+    }
+
+    private final String name;
+    private final int arity;
+    private final Body body;
+
+    NativeFunction(String name, int arity, Body body) {
+        this.name = name;
+        this.arity = arity;
+        this.body = body;
+    }
+
+    @Override
+    public int arity() {
+        return arity;
+    }
+
+    @Override
+    public Object call(Interpreter i, Object[] args) {
+        return body.call(i, args);
+    }
+
+    @Override
+    public String toString() {
+        return "<native function \"" + name + "\">";
+    }
+}
@@ -0,0 +1,106 @@
+package com.craftinginterpreters.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Where an isolate's print statements go. Printed lines are collected in a buffer and written
+ * out in one go once the buffer gets past its size, instead of making a (synchronized, flushing)
+ * System.out.println call for every single print.
+ *
+ * The LoxIsolate flushes this at the end of every run, which covers the end of a script and every
+ * line of the REPL, and the Interpreter flushes it before reporting a runtime error so the error
+ * still shows up after the output that came before it.
+ *
+ * Like PrintStream, an IOException doesn't get thrown at the script. Writing just stops, and
+ * checkError() says whether that happened.
+ */
+public class OutputSink {
+    // how many chars get buffered before writing them out, when nobody picks a size
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    // exactly one of these is where the output goes
+    private final PrintStream stream;
+    private final FileChannel file;
+
+    // 0 means write every line as soon as it's printed
+    private final int bufferSize;
+    private final StringBuilder buffer;
+
+    private boolean error = false;
+
+    // writes to a PrintStream like System.out
+    public OutputSink(PrintStream stream, int bufferSize) {
+        this.stream = stream;
+        this.file = null;
+        this.bufferSize = bufferSize;
+        buffer = new StringBuilder(bufferSize + 256);
+    }
+
+    // writes straight into a file (replacing what was in it), without going through a PrintStream at all
+    public OutputSink(Path path, int bufferSize) throws IOException {
+        this.stream = null;
+        this.file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+        this.bufferSize = bufferSize;
+        buffer = new StringBuilder(bufferSize + 256);
+    }
+
+    // fibers of the same isolate all print here, so this is synchronized
+    synchronized void println(String line) {
+        buffer.append(line).append(LINE_SEPARATOR);
+        if (buffer.length() >= bufferSize) flush();
+    }
+
+    public synchronized void flush() {
+        if (buffer.length() == 0) return;
+        if (!error) {
+            if (stream != null) {
+                stream.append(buffer);
+                stream.flush();
+            }
+            else {
+                writeToFile();
+            }
+        }
+        buffer.setLength(0);
+    }
+
+    // flushes, and closes the file if this writes to one. A PrintStream is left open since
+    // it probably belongs to someone else (like System.out)
+    public synchronized void close() {
+        flush();
+        if (file != null) {
+            try {
+                file.close();
+            }
+            catch (IOException e) {
+                error = true;
+            }
+        }
+    }
+
+    public synchronized boolean checkError() {
+        return error || (stream != null && stream.checkError());
+    }
+
+    private void writeToFile() {
+        ByteBuffer bytes = StandardCharsets.UTF_8.encode(CharBuffer.wrap(buffer));
+        try {
+            while (bytes.hasRemaining()) {
+                file.write(bytes);
+            }
+        }
+        catch (IOException e) {
+            error = true;
+        }
+    }
+}
@@ -24,8 +24,12 @@ public class Parser {
     // the number of loops deep that we are in. We need this for break statements
     private int loopDepth = 0;
 
-    Parser(List<Token> tokens) {
+    // where syntax errors get reported
+    private final ErrorReporter reporter;
+
+    Parser(List<Token> tokens, ErrorReporter reporter) {
         this.tokens = tokens;
+        this.reporter = reporter;
     }
 
     // new parse looks for statements, not expressions. Expressions are
@@ -57,13 +61,18 @@ public class Parser {
                 return classDeclaration();
             }
 
+            // import "file.lox";
+            if (match(IMPORT)) {
+                return importStatement();
+            }
+
             // else if just statement (either print or exp statement)
             return statement();
         }
         catch (ParseError p) {
             // so if there was error parsing the current token, we want to 
             // synchronize to next available location to keep parsing
-            // since internally, ParseError will have called Lox.error() already so
+            // since internally, ParseError will have called reporter.error() already so
             // the main class will be notified. But we don't want to stop parsing.
             synchronize();
             return null;
@@ -79,7 +88,8 @@ public class Parser {
         }
         // block statement
         if (match(LEFT_BRACE)) {
-            return new Statement.BlockStatement(block());
+            Token brace = previous();
+            return new Statement.BlockStatement(brace, block());
         }
 
         // if statement
@@ -150,13 +160,14 @@ public class Parser {
 
     // whileStmt → "while" "(" expression ")" statement 
     private Statement whileStatement() {
+        Token keyword = previous();
         try {
             loopDepth++;
             consume(LEFT_PAREN, "while statement missing '(' token");
             Expression exp = expression();
             consume(RIGHT_PAREN, "while statement missing ')' token");
             Statement whileContents = statement();
-            return new Statement.WhileStatement(exp, whileContents);
+            return new Statement.WhileStatement(keyword, exp, whileContents);
         }
         finally {
             loopDepth--;
@@ -169,6 +180,7 @@ public class Parser {
     // condition: "i < 3"
     // increment: "i++"
     private Statement forStatement() {
+        Token keyword = previous();
         try {
             loopDepth++;
             Statement initial = null;
@@ -205,17 +217,17 @@ public class Parser {
             // we can represent that by making a Block statement and adding to the end the increment
             // also we don't support ++ or anything so we should write it like "i = i+1" for now
             if (increment != null) {
-                code = new Statement.BlockStatement(Arrays.asList(code, 
+                code = new Statement.BlockStatement(keyword, Arrays.asList(code, 
                 new Statement.ExpressionStatement(increment)));
             }
     
             if (condition == null) condition = new Expression.Literal(true);
-            Statement body = new Statement.WhileStatement(condition, code);
+            Statement body = new Statement.WhileStatement(keyword, condition, code);
     
             // the initial condition should run before the loop takes place
             // furthermore it should be outside the whilestatement, since it only runs once
             if (initial != null) {
-                body = new Statement.BlockStatement(Arrays.asList( 
+                body = new Statement.BlockStatement(keyword, Arrays.asList( 
                 initial, body));
             }
     
@@ -322,6 +334,15 @@ public class Parser {
         return codeInsideBlock;
     }
 
+    // importStmt -> "import" STRING ";"
+    // the path is relative to the file doing the importing, see ModuleLoader
+    private Statement importStatement() {
+        Token keyword = previous();
+        Token path = consume(STRING, "Import expects a file path in quotes");
+        consume(SEMICOLON, "Import Statement must end with a semicolon");
+        return new Statement.ImportStatement(keyword, path);
+    }
+
     // varDecl -> "var" IDENTIFIER ("=" expression )? ";" where ? means 0 or 1
     private Statement varDeclaration() {
         Token variableName = consume(IDENTIFIER, "Variable name expected");
@@ -363,6 +384,11 @@ public class Parser {
                 Expression.Get lhsget = (Expression.Get) lhs;
                 return new Expression.Set(lhsget.object, lhsget.name, rhs);
             }
+            else if (lhs instanceof Expression.GetIndex) {
+                // same trick as above but for map[key] = x
+                Expression.GetIndex lhsindex = (Expression.GetIndex) lhs;
+                return new Expression.SetIndex(lhsindex.object, lhsindex.bracket, lhsindex.index, rhs);
+            }
             else {
                 // invalid assignment statement
                 error(equalsToken, "Invalid assignment target");
@@ -453,7 +479,7 @@ public class Parser {
         }
     }
 
-    // call → primary ( "(" arguments? ")" | "." IDENTIFIER )* ;
+    // call → primary ( "(" arguments? ")" | "." IDENTIFIER | "[" expression "]" )* ;
     private Expression call() {
         Expression e = primary();
 
@@ -469,6 +495,12 @@ public class Parser {
                 Token memberName = advance();
                 e = new Expression.Get(e, memberName);
             }
+            else if (match(LEFT_BRACKET)) {
+                // indexing into a map, like counts["apple"]
+                Expression index = expression();
+                Token bracket = consume(RIGHT_BRACKET, "Expecting ']' after index");
+                e = new Expression.GetIndex(e, bracket, index);
+            }
             else {
                 break;
             }
@@ -602,7 +634,7 @@ public class Parser {
 
     // called by the parser. We don't want to terminate the program though.
     private ParseError error(Token token, String message) {
-        Lox.error(token, message);
+        reporter.error(token, message);
         return new ParseError();
     }
 
@@ -626,6 +658,7 @@ public class Parser {
                 case WHILE:
                 case PRINT:
                 case VAR:
+                case IMPORT:
                     return;
             }
             advance();
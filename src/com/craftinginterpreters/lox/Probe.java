@@ -0,0 +1,22 @@
+package com.craftinginterpreters.lox;
+
+/**
+ * What a Statement.Hook or Expression.Hook does when the Interpreter gets to it. The tools that
+ * watch a script run (Instrumenter, Tracer, the Debugger) put hooks around nodes in their copy of
+ * the tree (see TreeRewriter), and their probes count, time, trace or stop before running the node.
+ *
+ * Only the Interpreter calls a probe. The other visitors look straight through a hook at the node
+ * it wraps, so a hooked tree still prints and resolves like the tree it was copied from.
+ */
+abstract class Probe {
+    // runs the statement the hook wraps and returns its completion (see Interpreter). Probes that
+    // only go around statements override this one
+    Object statement(Interpreter interpreter, Statement statement) {
+        return statement.accept(interpreter);
+    }
+
+    // evaluates the expression the hook wraps
+    Object expression(Interpreter interpreter, Expression expression) {
+        return expression.accept(interpreter);
+    }
+}
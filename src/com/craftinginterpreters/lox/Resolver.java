@@ -13,12 +13,13 @@ import com.craftinginterpreters.lox.Statement.*;
  * For the visit expressions, to deduce which parts need resolving, just think about whether or not 
  * it could be a variable. If the answer is yes, we need to resolve() it
  * Also, resolve parses the syntax tree the exact same way as Interpreter, and the critical function is 
- * resolveLocal, which calls Interpreter.resolve() and adds info the locals hashmap in Interpreter so 
- * that during runtime, Interpreter knows which variable corresponds to what by knowing how many scopes
- * to jump 
+ * resolveLocal, which works out how many scopes up each variable lives. That gets written into the
+ * depth field of the Variable/Assignment/This/Super node itself so that during runtime, Interpreter knows
+ * which variable corresponds to what by knowing how many scopes to jump.
+ * Since the answer is stored in the tree and not in some Interpreter, a resolved tree never changes
+ * again and can be shared by any number of interpreters (see CompiledScript)
  */
 public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Void> {
-    private final Interpreter interpreter;
 
     // this is kinda like the environments linkedlist of hashmaps? except in a stack structure
     // its map of string to bool because bool is whether or not this symbol has been defined
@@ -41,8 +42,15 @@ public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Voi
         SUBCLASS
     }
 
-    Resolver(Interpreter i) {
-        interpreter = i;
+    // where static errors (like returning from a constructor) get reported
+    private final ErrorReporter reporter;
+
+    // flip this on to print out what the resolver is doing. This is off by default because it
+    // would print to System.out, and every isolate sharing System.out would mix their traces together
+    private static final boolean DEBUG_RESOLVER = false;
+
+    Resolver(ErrorReporter reporter) {
+        this.reporter = reporter;
     }
 
     private void resolve(Statement s) {
@@ -61,12 +69,12 @@ public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Voi
 
     private void beginScope() {
         scopes.push(new HashMap<>());
-        System.out.println("Pushing scope, there are now " + scopes.size() + " scopes.");
+        if (DEBUG_RESOLVER) System.out.println("Pushing scope, there are now " + scopes.size() + " scopes.");
     }
 
     private void endScope() {
         scopes.pop();
-        System.out.println("Popping scope, there are now " + scopes.size() + " scopes.");
+        if (DEBUG_RESOLVER) System.out.println("Popping scope, there are now " + scopes.size() + " scopes.");
     }
 
     private void declare(Token name) {
@@ -81,35 +89,36 @@ public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Voi
         
         // check that it has not yet been declared
         if (scope.containsKey(name.lexeme)) {
-            Lox.error(name, "Already exists variable with name " + name.lexeme + " in this scope.");
+            reporter.error(name, "Already exists variable with name " + name.lexeme + " in this scope.");
         }
 
         // and put the name of the token in. 
         // the False means we have not finished resolving this variables' initializer
-        System.out.println("Declaring " + name.lexeme + " at scope of depth " + scopes.size());
+        if (DEBUG_RESOLVER) System.out.println("Declaring " + name.lexeme + " at scope of depth " + scopes.size());
         scope.put(name.lexeme, false);
     }
 
     private void define(Token name) {
         if (scopes.isEmpty()) return;
 
-        System.out.println("Defining " + name.lexeme + " at scope of depth " + scopes.size());
+        if (DEBUG_RESOLVER) System.out.println("Defining " + name.lexeme + " at scope of depth " + scopes.size());
         // now mark as true to say that it is defined
         scopes.peek().put(name.lexeme, true);
     }
 
     // this goes up through all the scopes and tries to resolve this
     // the Token name is just the name of the variable, aka expression.name
-    private void resolveLocal(Expression expression, Token name) {
+    // returns the number of scopes between current scope and the one where it was found,
+    // or -1 if it wasn't found in any of them (so its a global)
+    private int resolveLocal(Token name) {
         for (int i = scopes.size()-1; i >= 0; i--) {
             if (scopes.get(i).containsKey(name.lexeme)) {
-                // second arg is number of scopes between current scope and the one where it was found
-                // send this resolve info to interpreter so it can use the info during runtime
-                System.out.println("Calling interpreter.resolve() with expression: " + name.lexeme + " and distance " + (scopes.size() - i - 1));
-                interpreter.resolve(expression, scopes.size() - i - 1);
-                return;
+                // the caller stores this in the node so the interpreter can use the info during runtime
+                if (DEBUG_RESOLVER) System.out.println("Resolved " + name.lexeme + " to distance " + (scopes.size() - i - 1));
+                return scopes.size() - i - 1;
             }
         }
+        return -1;
     }
 
     private void resolveFunction(FunctionStatement f, FunctionType type) {
@@ -165,12 +174,12 @@ public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Voi
         
         // System.out.println("haha " + expression.name.lexeme + " and " + scopes.peek().get(expression.name.lexeme));
         if (!scopes.empty() && scopes.peek().get(expression.name.lexeme) == Boolean.FALSE) {
-            Lox.error(expression.name, "Variable " + 
+            reporter.error(expression.name, "Variable " + 
             expression.name.lexeme + " is not defined yet");
         }
 
         // otherwise if we can find it
-        resolveLocal(expression, expression.name);
+        expression.depth = resolveLocal(expression.name);
         return null;
     }
     
@@ -181,7 +190,7 @@ public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Voi
         resolve(expression.value);
 
         // then resolve the local variable
-        resolveLocal(expression, expression.name);
+        expression.depth = resolveLocal(expression.name);
         return null;
     }
 
@@ -209,19 +218,19 @@ public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Voi
 
             // check that we aren't inheriting ourself
             if (statement.nameOfClass.lexeme.equals(statement.superclass.name.lexeme)) {
-                Lox.error(statement.superclass.name, "Cannot inherit own class");
+                reporter.error(statement.superclass.name, "Cannot inherit own class");
             }
             resolve(statement.superclass);
 
             // scope for the "super" keyword
             beginScope();
-            System.out.println("Putting super keyword in scope at depth " + scopes.size());
+            if (DEBUG_RESOLVER) System.out.println("Putting super keyword in scope at depth " + scopes.size());
             scopes.peek().put("super", true);
         }
 
         // define the "this" keyword once a class is defined, in a scope right underneath this one
         beginScope();
-        System.out.println("Putting this keyword in scope at depth " + scopes.size());
+        if (DEBUG_RESOLVER) System.out.println("Putting this keyword in scope at depth " + scopes.size());
         scopes.peek().put("this", true);
 
         // resolve all the methods
@@ -266,10 +275,18 @@ public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Voi
     public Void visitReturnStatementStatement(ReturnStatement statement) {
         if (currentFunction == FunctionType.NONE || currentFunction == FunctionType.CONSTRUCTOR) {
             // bad
-            Lox.error(statement.returnKeyword, "Return keyword must take place in a function that is not a constructor");
+            reporter.error(statement.returnKeyword, "Return keyword must take place in a function that is not a constructor");
             return null;
         }
+        // "return;" has nothing to resolve
+        if (statement.exp == null) return null;
         resolve(statement.exp);
+
+        // return f(...) is a tail call: nothing is left to do in this function once f returns, so the
+        // interpreter can run f in place of this call instead of on top of it (see LoxFunction.call)
+        if (statement.exp instanceof Call) {
+            statement.isTailCall = true;
+        }
         return null;
     }
 
@@ -325,6 +342,24 @@ public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Voi
         return null;
     }
 
+    // imported files get loaded before the script runs (see ModuleLoader), which only makes
+    // sense for imports at the top level of a file
+    @Override
+    public Void visitImportStatementStatement(ImportStatement statement) {
+        if (!scopes.isEmpty()) {
+            reporter.error(statement.keyword, "Can only import at the top level of a file");
+        }
+        return null;
+    }
+
+    // hooks only show up in the copies TreeRewriter makes of trees that were already resolved,
+    // but if one gets here it's resolved like the statement it wraps
+    @Override
+    public Void visitHookStatement(Statement.Hook statement) {
+        resolve(statement.statement);
+        return null;
+    }
+
     // a.x for example. We don't care about resolving x as that is just the name of a field, not a local variable.
     // it will be the argument to LoxInstance.getField. We care about the expression "a" instead since that could 
     // be a local variable
@@ -347,16 +382,39 @@ public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Voi
         return null;
     }
 
+    // m[key], both the map and the key could be local variables
+    @Override
+    public Void visitGetIndexExpression(GetIndex expression) {
+        resolve(expression.object);
+        resolve(expression.index);
+        return null;
+    }
+
+    // m[key] = value
+    @Override
+    public Void visitSetIndexExpression(SetIndex expression) {
+        resolve(expression.value);
+        resolve(expression.object);
+        resolve(expression.index);
+        return null;
+    }
+
+    @Override
+    public Void visitHookExpression(Expression.Hook expression) {
+        resolve(expression.expression);
+        return null;
+    }
+
     @Override
     public Void visitThisExpression(This expression) {
-        System.out.println("Resolving this...");
+        if (DEBUG_RESOLVER) System.out.println("Resolving this...");
         if (currentClass != ClassType.CLASS && currentClass != ClassType.SUBCLASS) {
-            Lox.error(expression.keyword, "'this' keyword must take place in a class method");
+            reporter.error(expression.keyword, "'this' keyword must take place in a class method");
             return null;
         }
         // this will already be in a scope by itself thanks to 
         // visitClassDeclaration, so we can just say "resolveLocal" on it
-        resolveLocal(expression, expression.keyword);
+        expression.depth = resolveLocal(expression.keyword);
         return null;
     }
 
@@ -364,11 +422,11 @@ public class Resolver implements Expression.Visitor<Void>, Statement.Visitor<Voi
     public Void visitSuperExpression(Super expression) {
         // resolve the 'super' keyword itself. Because again, its gonna be in its own scope like 'this'
         if (currentClass != ClassType.SUBCLASS) {
-            Lox.error(expression.keyword, "'super' keyword must take place in a class" 
+            reporter.error(expression.keyword, "'super' keyword must take place in a class" 
             + " method that is inheriting from another class");
             return null;
         }
-        resolveLocal(expression, expression.keyword);
+        expression.depth = resolveLocal(expression.keyword);
         return null;
     }
 }
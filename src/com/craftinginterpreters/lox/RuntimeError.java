@@ -7,9 +7,18 @@ package com.craftinginterpreters.lox;
 public class RuntimeError extends RuntimeException {
     final Token token;
 
+    // the Lox functions the error happened in, innermost first, see CallStack.trace. Filled in by the
+    // innermost LoxFunction.call it goes through, null if it happened outside of any function
+    String[] loxStack = null;
+
+    // already in the engine metrics, like the error from fiberJoin on a fiber that failed (the
+    // fiber reported its own error when it happened)
+    boolean counted = false;
+
     RuntimeError(Token token, String message) {
-        // this super call will fill in the stack trace
-        super(message);
+        // the java stack trace would just be a pile of Interpreter.visit* frames, and filling it in costs
+        // more than everything else about an error. Scripts that fail in a loop shouldn't pay that
+        super(message, null, false, false);
         this.token = token;
     }
 }
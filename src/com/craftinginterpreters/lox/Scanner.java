@@ -26,8 +26,12 @@ public class Scanner {
     // the line number
     private int line = 1;
 
-    Scanner(String source) {
+    // where to report errors like unterminated strings
+    private final ErrorReporter reporter;
+
+    Scanner(String source, ErrorReporter reporter) {
         this.source = source;
+        this.reporter = reporter;
         initializeKeywords();
     }
 
@@ -60,6 +64,8 @@ public class Scanner {
             case ')': addToken(RIGHT_PAREN); break;
             case '{': addToken(LEFT_BRACE); break;
             case '}': addToken(RIGHT_BRACE); break;
+            case '[': addToken(LEFT_BRACKET); break;
+            case ']': addToken(RIGHT_BRACKET); break;
             case ',': addToken(COMMA); break;
             case '.': addToken(DOT); break;
             case '-': addToken(MINUS); break;
@@ -112,20 +118,22 @@ public class Scanner {
                     while (isAlphaNumeric(peek())) {
                         advance();
                     }
-                    String s = source.substring(start, current);
-                    if (keywordsMap.get(s) != null) {
+                    // intern names so every use of the same name is the same String (see StringTable)
+                    String s = StringTable.name(source.substring(start, current));
+                    TokenType keyword = keywordsMap.get(s);
+                    if (keyword != null) {
                         // if special keyword
-                        addToken(keywordsMap.get(s), s);
+                        tokens.add(new Token(keyword, s, s, line));
                     }
                     else {
                         // otherwise if not, then its a variable name or something
-                        addToken(IDENTIFIER, s);
+                        tokens.add(new Token(IDENTIFIER, s, s, line));
                     }
 
                 }
                 else {
                     // some weird character that's not supported by our language, like ~ for example
-                    Lox.error(line, "Unexpected character " + c);
+                    reporter.error(line, "Unexpected character " + c);
                 }
                 break;
         }
@@ -175,6 +183,7 @@ public class Scanner {
         keywordsMap.put("var", VAR);
         keywordsMap.put("while", WHILE);
         keywordsMap.put("break", BREAK);
+        keywordsMap.put("import", IMPORT);
     }
 
     private Boolean isDigit(char c) {
@@ -246,7 +255,7 @@ public class Scanner {
 
         // take care of unterminated string case
         if (isAtEnd()) {
-            Lox.error(line, "Unterminated string");
+            reporter.error(line, "Unterminated string");
         }
 
         // do start+1 to ignore the first " character
@@ -254,6 +263,6 @@ public class Scanner {
 
         // go past the closing quote
         advance();
-        addToken(STRING, value);
+        addToken(STRING, StringTable.literal(value));
     }
 }
@@ -0,0 +1,105 @@
+package com.craftinginterpreters.lox;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of CompiledScripts that can be shared by any number of LoxIsolates, on any threads.
+ * When lots of isolates run the same script, only the first one pays for scanning, parsing
+ * and resolving it, the rest just run the cached tree.
+ *
+ * Scripts are keyed by a SHA-256 hash of their source. The cache is bounded by the total length
+ * of the sources in it, and when it's full the least recently used scripts get thrown out.
+ */
+public class ScriptCache {
+    // the most source characters we keep compiled scripts for
+    private final long maxSourceChars;
+    private long cachedSourceChars = 0;
+
+    // access ordered, so iterating starts at the least recently used script
+    private final LinkedHashMap<String, CompiledScript> scripts = new LinkedHashMap<>(16, 0.75f, true);
+
+    // for seeing how well the cache works
+    private long hits = 0;
+    private long misses = 0;
+
+    public ScriptCache(long maxSourceChars) {
+        this.maxSourceChars = maxSourceChars;
+    }
+
+    // returns the compiled script for this source, compiling (and caching) it if we haven't seen it.
+    // if the source has errors they go to reporter and this returns null
+    public CompiledScript getOrCompile(String source, ErrorReporter reporter) {
+        String key = hash(source);
+        synchronized (this) {
+            CompiledScript cached = scripts.get(key);
+            if (cached != null) {
+                hits++;
+                LoxMetrics.ENGINE.cacheHit();
+                return cached;
+            }
+            misses++;
+            LoxMetrics.ENGINE.cacheMiss();
+        }
+
+        // compile outside the lock so other isolates aren't stuck waiting on us. If two isolates
+        // compile the same new script at once, they both do the work but only one copy gets kept
+        CompiledScript script = CompiledScript.compile(source, reporter);
+        if (script == null) return null;
+
+        synchronized (this) {
+            CompiledScript raced = scripts.get(key);
+            if (raced != null) return raced;
+
+            // scripts that would never fit just don't get cached
+            if (script.getSourceLength() > maxSourceChars) return script;
+
+            scripts.put(key, script);
+            cachedSourceChars += script.getSourceLength();
+            evict();
+        }
+        return script;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        return scripts.size();
+    }
+
+    // throw out least recently used scripts until we're back under the limit
+    private void evict() {
+        Iterator<Map.Entry<String, CompiledScript>> it = scripts.entrySet().iterator();
+        while (cachedSourceChars > maxSourceChars && it.hasNext()) {
+            cachedSourceChars -= it.next().getValue().getSourceLength();
+            it.remove();
+        }
+    }
+
+    private static String hash(String source) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] bytes = digest.digest(source.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(bytes.length * 2);
+            for (byte b : bytes) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+                sb.append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.toString();
+        }
+        catch (NoSuchAlgorithmException e) {
+            // every java platform has to support SHA-256, so this can't happen
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -15,6 +15,8 @@ abstract class Statement {
 		R visitFunctionStatementStatement(FunctionStatement statement);
 		R visitReturnStatementStatement(ReturnStatement statement);
 		R visitClassDeclarationStatement(ClassDeclaration statement);
+		R visitImportStatementStatement(ImportStatement statement);
+		R visitHookStatement(Hook statement);
 	}
 	static class ExpressionStatement extends Statement {
 		final Expression expression;
@@ -55,6 +57,7 @@ abstract class Statement {
 		}
 	}
 	static class BlockStatement extends Statement {
+		final Token brace;
 		final List<Statement> statements;
 
 		@Override
@@ -62,7 +65,8 @@ abstract class Statement {
 			return visitor.visitBlockStatementStatement(this);
 		}
 
-		BlockStatement(List<Statement> statements) {
+		BlockStatement(Token brace, List<Statement> statements) {
+			this.brace = brace;
 			this.statements = statements;
 		}
 	}
@@ -83,6 +87,7 @@ abstract class Statement {
 		}
 	}
 	static class WhileStatement extends Statement {
+		final Token keyword;
 		final Expression condition;
 		final Statement code;
 
@@ -91,7 +96,8 @@ abstract class Statement {
 			return visitor.visitWhileStatementStatement(this);
 		}
 
-		WhileStatement(Expression condition, Statement code) {
+		WhileStatement(Token keyword, Expression condition, Statement code) {
+			this.keyword = keyword;
 			this.condition = condition;
 			this.code = code;
 		}
@@ -126,6 +132,9 @@ abstract class Statement {
 		final Token returnKeyword;
 		final Expression exp;
 
+		// filled in by the Resolver
+		boolean isTailCall;
+
 		@Override
 		<R> R accept(Visitor<R> visitor) {
 			return visitor.visitReturnStatementStatement(this);
@@ -152,6 +161,34 @@ abstract class Statement {
 			this.methods = methods;
 		}
 	}
+	static class ImportStatement extends Statement {
+		final Token keyword;
+		final Token path;
+
+		@Override
+		<R> R accept(Visitor<R> visitor) {
+			return visitor.visitImportStatementStatement(this);
+		}
+
+		ImportStatement(Token keyword, Token path) {
+			this.keyword = keyword;
+			this.path = path;
+		}
+	}
+	static class Hook extends Statement {
+		final Statement statement;
+		final Probe probe;
+
+		@Override
+		<R> R accept(Visitor<R> visitor) {
+			return visitor.visitHookStatement(this);
+		}
+
+		Hook(Statement statement, Probe probe) {
+			this.statement = statement;
+			this.probe = probe;
+		}
+	}
 
 	abstract <R> R accept(Visitor<R> visitor);
 }
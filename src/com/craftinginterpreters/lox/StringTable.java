@@ -0,0 +1,129 @@
+package com.craftinginterpreters.lox;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The global intern table. The Scanner interns every identifier and keyword and every string literal,
+ * so the same name or literal always ends up as the same object no matter where it appears.
+ *
+ * That pays off in a few places:
+ * - Environment, LoxInstance fields and LoxClass methods are HashMaps keyed by Token.lexeme. HashMap
+ *   checks == before calling equals, and Strings cache their hash, so a lookup with an interned name
+ *   is an identity compare. Names like "this", "super" and "init" that we use from java code are
+ *   compile time constants, which the JVM interns too, so they match the scanned ones.
+ * - two interned LoxStrings are equal exactly when they are the same object, so Lox == on them
+ *   (and LoxMap lookups) never compare characters.
+ *
+ * Strings created while the program runs (by concatenation or builderToString) are only interned
+ * according to the runtime policy, since interning means flattening and hashing every result.
+ *
+ * There's one table for the whole JVM, so code scanned on any thread goes through it. It's a
+ * ConcurrentHashMap, so finding a string that's already interned doesn't take a lock, and only adding
+ * a new one locks (a single bin of) the map.
+ */
+final class StringTable {
+
+    // what to do with strings that get created at runtime
+    enum RuntimePolicy {
+        // never intern them, this is the default
+        NONE,
+        // intern results that are short enough to already be flat (see LoxString.concat)
+        SHORT,
+        // intern everything. This flattens every concatenation, so building long strings gets slow
+        ALL
+    }
+
+    // set with -Dlox.internRuntimeStrings=none|short|all, or setRuntimePolicy()
+    private static volatile RuntimePolicy runtimePolicy = policyProperty();
+
+    // the values are weak so strings that nothing uses anymore (like literals of a finished script)
+    // can still be garbage collected. Their entries get taken out the next time something is interned
+    private static final ConcurrentHashMap<String, Entry> strings = new ConcurrentHashMap<>();
+
+    // where the entries of collected strings turn up
+    private static final ReferenceQueue<LoxString> collected = new ReferenceQueue<>();
+
+    private static class Entry extends WeakReference<LoxString> {
+        // so the entry can be found and taken out once the string is gone
+        final String key;
+
+        Entry(String key, LoxString s) {
+            super(s, collected);
+            this.key = key;
+        }
+    }
+
+    private StringTable() {}
+
+    // this runs the first time anything gets scanned, so a typo only gets a warning instead of
+    // an error that leaves the class (and with it the Scanner) broken for good
+    private static RuntimePolicy policyProperty() {
+        String name = System.getProperty("lox.internRuntimeStrings", "none");
+        try {
+            return RuntimePolicy.valueOf(name.toUpperCase());
+        }
+        catch (IllegalArgumentException e) {
+            System.err.println("lox.internRuntimeStrings has to be none, short or all, not " + name + ". Using none");
+            return RuntimePolicy.NONE;
+        }
+    }
+
+    static RuntimePolicy getRuntimePolicy() {
+        return runtimePolicy;
+    }
+
+    static void setRuntimePolicy(RuntimePolicy policy) {
+        runtimePolicy = policy;
+    }
+
+    // identifiers and keywords go through the JVM's own table, see the comment at the top
+    static String name(String name) {
+        return name.intern();
+    }
+
+    // string literals always get interned
+    static LoxString literal(String value) {
+        return intern(value);
+    }
+
+    // called on strings made at runtime, interns them if the policy says so
+    static LoxString runtime(LoxString s) {
+        if (s.isInterned()) return s;
+        switch (runtimePolicy) {
+            case ALL:
+                return intern(s.toString());
+            case SHORT:
+                if (s.isFlat()) return intern(s.toString());
+                return s;
+            default:
+                return s;
+        }
+    }
+
+    private static LoxString intern(String value) {
+        removeCollected();
+        for (;;) {
+            Entry entry = strings.get(value);
+            LoxString s = entry == null ? null : entry.get();
+            if (s != null) return s;
+
+            // not there (or collected). Whoever gets their entry in first wins, and if that isn't
+            // us we go around again and use theirs
+            s = LoxString.interned(value);
+            Entry fresh = new Entry(s.toString(), s);
+            if (entry == null ? strings.putIfAbsent(value, fresh) == null : strings.replace(value, entry, fresh)) {
+                return s;
+            }
+        }
+    }
+
+    private static void removeCollected() {
+        Entry entry;
+        while ((entry = (Entry) collected.poll()) != null) {
+            // only if it wasn't replaced already
+            strings.remove(entry.key, entry);
+        }
+    }
+}
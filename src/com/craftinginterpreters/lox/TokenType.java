@@ -2,7 +2,7 @@ package com.craftinginterpreters.lox;
 
 enum TokenType {
     // Single char tokens
-    LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE,
+    LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE, LEFT_BRACKET, RIGHT_BRACKET,
     COMMA, DOT, MINUS, PLUS, SEMICOLON, SLASH, STAR, COLON,
 
     // one or two character tokens 
@@ -28,5 +28,8 @@ enum TokenType {
     FUN, RETURN,
 
     // etc.
-    VAR, EOF, PRINT
+    VAR, EOF, PRINT,
+
+    // modules
+    IMPORT
 }
@@ -0,0 +1,133 @@
+package com.craftinginterpreters.lox;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The last few thousand statements an isolate ran, for isolates built with trace(capacity). This is
+ * the java version of clox's DEBUG_TRACE_EXECUTION, except nothing gets printed while the script
+ * runs. Every statement just writes one long (which node it was and how deep in scopes it ran)
+ * into a ring buffer that was allocated up front, and the buffer gets dumped in a compact binary
+ * format when the script fails or someone asks for it. PrintTrace in tools turns a dump into text.
+ *
+ * The nodes are numbered as the Tracer copies them, and the dump ends with a table of what each
+ * number is (kind of statement and where it is), so records don't need to carry any of that.
+ * Nodes of the same kind in the same place share a number, so copying the same script again
+ * (say it was compiled again instead of coming from a ScriptCache) doesn't grow the table.
+ *
+ * A dump is, all big endian:
+ *   int magic "LOXT", short version
+ *   long how many statements ran in total, int n records, then n records of
+ *     int node id, short scope depth (oldest first)
+ *   int node count, then for each node: int line, UTF where, UTF kind
+ */
+public class TraceLog {
+    static final int MAGIC = 0x4C4F5854;
+    static final short VERSION = 1;
+
+    // how many statements get kept when nobody picks
+    public static final int DEFAULT_CAPACITY = 1 << 16;
+
+    private final long[] records;
+    private final int mask;
+
+    // how many records have ever been written, the next one goes in slot next & mask.
+    // Fibers can be tracing at the same time, so slots are handed out atomically
+    private final AtomicLong next = new AtomicLong();
+
+    // node id -> where it is, guarded by this
+    private final List<String> nodeWheres = new ArrayList<>();
+    private final List<Integer> nodeLines = new ArrayList<>();
+    private final List<String> nodeKinds = new ArrayList<>();
+    // kind and where -> node id
+    private final Map<String, Integer> nodeIds = new HashMap<>();
+
+    // capacity is rounded up to a power of 2 so finding a slot is just a mask
+    TraceLog(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        records = new long[size];
+        mask = size - 1;
+    }
+
+    // gives a node its id, called by the Tracer as it copies the tree
+    synchronized int register(String kind, String where, int line) {
+        return nodeIds.computeIfAbsent(kind + " " + where, key -> {
+            nodeKinds.add(kind);
+            nodeWheres.add(where);
+            nodeLines.add(line);
+            return nodeKinds.size() - 1;
+        });
+    }
+
+    void record(int nodeId, int depth) {
+        records[(int) (next.getAndIncrement() & mask)] = ((long) nodeId << 32) | (depth & 0xFFFFFFFFL);
+    }
+
+    // writes the buffer out. The script can keep running while this happens, anything it
+    // writes during the dump may or may not make it in
+    public synchronized void dump(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeShort(VERSION);
+
+        long total = next.get();
+        int count = (int) Math.min(total, records.length);
+        out.writeLong(total);
+        out.writeInt(count);
+        for (long k = total - count; k < total; k++) {
+            long record = records[(int) (k & mask)];
+            out.writeInt((int) (record >>> 32));
+            out.writeShort((short) Math.min(record & 0xFFFFFFFFL, Short.MAX_VALUE));
+        }
+
+        out.writeInt(nodeKinds.size());
+        for (int id = 0; id < nodeKinds.size(); id++) {
+            out.writeInt(nodeLines.get(id));
+            out.writeUTF(nodeWheres.get(id));
+            out.writeUTF(nodeKinds.get(id));
+        }
+        out.flush();
+    }
+
+    // turns a dump back into one line per statement, oldest first
+    public static void print(InputStream stream, PrintStream out) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC) throw new IOException("Not a Lox trace");
+        short version = in.readShort();
+        if (version != VERSION) throw new IOException("Unknown Lox trace version " + version);
+
+        long total = in.readLong();
+        int count = in.readInt();
+        int[] ids = new int[count];
+        short[] depths = new short[count];
+        for (int k = 0; k < count; k++) {
+            ids[k] = in.readInt();
+            depths[k] = in.readShort();
+        }
+
+        int nodes = in.readInt();
+        String[] wheres = new String[nodes];
+        String[] kinds = new String[nodes];
+        for (int id = 0; id < nodes; id++) {
+            in.readInt();
+            wheres[id] = in.readUTF();
+            kinds[id] = in.readUTF();
+        }
+
+        out.println(total + " statements ran, the last " + count + " were:");
+        for (int k = 0; k < count; k++) {
+            int id = ids[k];
+            String node = id < nodes ? wheres[id] + " " + kinds[id] : "unknown node " + id;
+            out.printf("%10d  depth %-3d %s%n", total - count + k, depths[k], node);
+        }
+    }
+}
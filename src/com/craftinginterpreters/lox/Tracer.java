@@ -0,0 +1,52 @@
+package com.craftinginterpreters.lox;
+
+import java.util.List;
+
+/**
+ * Makes a copy of a resolved syntax tree where every statement is hooked to record itself into a
+ * TraceLog before it runs, for isolates built with trace(capacity). See TreeRewriter for how the copying works.
+ */
+class Tracer extends TreeRewriter {
+    private final TraceLog log;
+
+    // the imported file this code is from, or null for the script itself
+    private final String file;
+
+    Tracer(TraceLog log, String file) {
+        this.log = log;
+        this.file = file;
+    }
+
+    List<Statement> trace(List<Statement> program) {
+        return rewrite(program);
+    }
+
+    // records the statement it hooks into the log before running it
+    static class Traced extends Probe {
+        final int id;
+        final TraceLog log;
+
+        Traced(int id, TraceLog log) {
+            this.id = id;
+            this.log = log;
+        }
+
+        @Override
+        Object statement(Interpreter interpreter, Statement statement) {
+            // how many scopes in from the globals this is running. Closures point at the scope the
+            // function was declared in, not the caller's, so this stays small even in deep recursion
+            int depth = 0;
+            for (Environment env = interpreter.currentEnv; env.parentEnv != null; env = env.parentEnv) {
+                depth++;
+            }
+            log.record(id, depth);
+            return statement.accept(interpreter);
+        }
+    }
+
+    @Override
+    protected Statement wrap(Statement copy) {
+        String where = file == null ? "line " + line : file + ":" + line;
+        return new Statement.Hook(copy, new Traced(log.register(copy.getClass().getSimpleName(), where, line), log));
+    }
+}
@@ -0,0 +1,283 @@
+package com.craftinginterpreters.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Makes a copy of a resolved syntax tree with hooks (Statement.Hook and Expression.Hook) put around
+ * some of its statements (and expressions). When the Interpreter gets to a hook its Probe runs the
+ * node inside, doing its own thing before and after. This is how the tools that watch a script run
+ * (Instrumenter, Tracer, the Debugger) get in, so scripts that don't use them run the plain tree and
+ * pay nothing.
+ *
+ * Subclasses decide what to hook in wrap(). line is the source line of the node being copied, so
+ * they can tell where it is. Hooks already in the tree being copied are left out of the copy.
+ *
+ * The original tree isn't changed, since it might be shared with other isolates through a ScriptCache.
+ */
+abstract class TreeRewriter implements Expression.Visitor<Expression>, Statement.Visitor<Statement> {
+    // the line of the node being copied, for nodes that don't have a token of their own
+    protected int line = 0;
+
+    List<Statement> rewrite(List<Statement> program) {
+        return statements(program);
+    }
+
+    // called with the copy of every statement, returns what goes in the new tree in its place
+    protected abstract Statement wrap(Statement copy);
+
+    // called with the copy of every expression that starts on a different line than the node it's in,
+    // like the arguments of a call split over several lines. Leaves them alone unless overridden
+    protected Expression wrap(Expression copy) {
+        return copy;
+    }
+
+    protected List<Statement> statements(List<Statement> list) {
+        List<Statement> copies = new ArrayList<>(list.size());
+        for (Statement s : list) {
+            copies.add(statement(s));
+        }
+        return copies;
+    }
+
+    protected Statement statement(Statement s) {
+        if (s == null) return null;
+        int outerLine = line;
+        try {
+            return s.accept(this);
+        }
+        finally {
+            line = outerLine;
+        }
+    }
+
+    // the body of an if or while, which sits in a field of its own instead of a list.
+    // Copied like any other statement unless overridden
+    protected Statement child(Statement s) {
+        return statement(s);
+    }
+
+    private List<Expression> expressions(List<Expression> list) {
+        List<Expression> copies = new ArrayList<>(list.size());
+        for (Expression e : list) {
+            copies.add(expression(e));
+        }
+        return copies;
+    }
+
+    private Expression expression(Expression e) {
+        if (e == null) return null;
+        int outerLine = line;
+        int own = lineOf(e, outerLine);
+        try {
+            line = own;
+            Expression copy = e.accept(this);
+            if (own == outerLine) return copy;
+            return wrap(copy);
+        }
+        finally {
+            line = outerLine;
+        }
+    }
+
+    // the line an expression starts on, as far as its tokens can tell, or fallback if it has none
+    private static int lineOf(Expression e, int fallback) {
+        if (e instanceof Expression.Hook) return lineOf(((Expression.Hook) e).expression, fallback);
+        if (e instanceof Expression.Binary) return lineOf(((Expression.Binary) e).left, fallback);
+        if (e instanceof Expression.Logical) return lineOf(((Expression.Logical) e).left, fallback);
+        if (e instanceof Expression.Grouping) return lineOf(((Expression.Grouping) e).expression, fallback);
+        if (e instanceof Expression.Unary) return ((Expression.Unary) e).operator.line;
+        if (e instanceof Expression.Variable) return ((Expression.Variable) e).name.line;
+        if (e instanceof Expression.Assignment) return ((Expression.Assignment) e).name.line;
+        if (e instanceof Expression.Call) return lineOf(((Expression.Call) e).callee, fallback);
+        if (e instanceof Expression.Get) return lineOf(((Expression.Get) e).object, fallback);
+        if (e instanceof Expression.Set) return lineOf(((Expression.Set) e).object, fallback);
+        if (e instanceof Expression.GetIndex) return lineOf(((Expression.GetIndex) e).object, fallback);
+        if (e instanceof Expression.SetIndex) return lineOf(((Expression.SetIndex) e).object, fallback);
+        if (e instanceof Expression.This) return ((Expression.This) e).keyword.line;
+        if (e instanceof Expression.Super) return ((Expression.Super) e).keyword.line;
+        // a literal
+        return fallback;
+    }
+
+    // a copy of a function and its body. The declaration itself gets wrapped by whoever called this
+    // (class methods can't be, ClassDeclaration only holds FunctionStatements).
+    // name is what to call it in reports, Class.method for methods
+    protected Statement.FunctionStatement function(Statement.FunctionStatement s, String name) {
+        int outerLine = line;
+        try {
+            line = s.funcName.line;
+            return new Statement.FunctionStatement(s.funcName, s.args, statements(s.code));
+        }
+        finally {
+            line = outerLine;
+        }
+    }
+
+    // ================================= Statements ========================= //
+
+    @Override
+    public Statement visitExpressionStatementStatement(Statement.ExpressionStatement s) {
+        line = lineOf(s.expression, line);
+        return wrap(new Statement.ExpressionStatement(expression(s.expression)));
+    }
+
+    @Override
+    public Statement visitPrintStatementStatement(Statement.PrintStatement s) {
+        line = lineOf(s.expression, line);
+        return wrap(new Statement.PrintStatement(expression(s.expression)));
+    }
+
+    @Override
+    public Statement visitVariableDeclarationStatement(Statement.VariableDeclaration s) {
+        line = s.name.line;
+        return wrap(new Statement.VariableDeclaration(s.name, expression(s.initializer)));
+    }
+
+    @Override
+    public Statement visitBlockStatementStatement(Statement.BlockStatement s) {
+        line = s.brace.line;
+        return wrap(new Statement.BlockStatement(s.brace, statements(s.statements)));
+    }
+
+    @Override
+    public Statement visitIfStatementStatement(Statement.IfStatement s) {
+        line = lineOf(s.condition, line);
+        return wrap(new Statement.IfStatement(expression(s.condition), child(s.ifCode), child(s.elseCode)));
+    }
+
+    @Override
+    public Statement visitWhileStatementStatement(Statement.WhileStatement s) {
+        line = s.keyword.line;
+        return wrap(new Statement.WhileStatement(s.keyword, expression(s.condition), child(s.code)));
+    }
+
+    // break has no token, it gets the line of the statement it's in
+    @Override
+    public Statement visitBreakStatementStatement(Statement.BreakStatement s) {
+        return wrap(s);
+    }
+
+    @Override
+    public Statement visitFunctionStatementStatement(Statement.FunctionStatement s) {
+        line = s.funcName.line;
+        return wrap(function(s, s.funcName.lexeme));
+    }
+
+    @Override
+    public Statement visitReturnStatementStatement(Statement.ReturnStatement s) {
+        line = s.returnKeyword.line;
+        Statement.ReturnStatement copy;
+        if (s.isTailCall) {
+            // the interpreter needs to see the call itself here, so only its parts get wrapped
+            Expression.Call call = (Expression.Call) s.exp;
+            copy = new Statement.ReturnStatement(s.returnKeyword,
+                new Expression.Call(expression(call.callee), expressions(call.args), call.closingParenthesis));
+        }
+        else {
+            copy = new Statement.ReturnStatement(s.returnKeyword, expression(s.exp));
+        }
+        copy.isTailCall = s.isTailCall;
+        return wrap(copy);
+    }
+
+    @Override
+    public Statement visitClassDeclarationStatement(Statement.ClassDeclaration s) {
+        line = s.nameOfClass.line;
+        List<Statement.FunctionStatement> methods = new ArrayList<>(s.methods.size());
+        for (Statement.FunctionStatement method : s.methods) {
+            methods.add(function(method, s.nameOfClass.lexeme + "." + method.funcName.lexeme));
+        }
+        return wrap(new Statement.ClassDeclaration(s.nameOfClass, s.superclass, methods));
+    }
+
+    @Override
+    public Statement visitImportStatementStatement(Statement.ImportStatement s) {
+        line = s.keyword.line;
+        return wrap(s);
+    }
+
+    @Override
+    public Statement visitHookStatement(Statement.Hook s) {
+        return s.statement.accept(this);
+    }
+
+    // ================================= Expressions ========================= //
+
+    @Override
+    public Expression visitBinaryExpression(Expression.Binary e) {
+        return new Expression.Binary(expression(e.left), e.operator, expression(e.right));
+    }
+
+    @Override
+    public Expression visitGroupingExpression(Expression.Grouping e) {
+        return new Expression.Grouping(expression(e.expression));
+    }
+
+    @Override
+    public Expression visitLiteralExpression(Expression.Literal e) {
+        return e;
+    }
+
+    @Override
+    public Expression visitUnaryExpression(Expression.Unary e) {
+        return new Expression.Unary(e.operator, expression(e.right));
+    }
+
+    @Override
+    public Expression visitVariableExpression(Expression.Variable e) {
+        return e;
+    }
+
+    @Override
+    public Expression visitAssignmentExpression(Expression.Assignment e) {
+        Expression.Assignment copy = new Expression.Assignment(e.name, expression(e.value));
+        copy.depth = e.depth;
+        return copy;
+    }
+
+    @Override
+    public Expression visitLogicalExpression(Expression.Logical e) {
+        return new Expression.Logical(expression(e.left), e.operator, expression(e.right));
+    }
+
+    @Override
+    public Expression visitCallExpression(Expression.Call e) {
+        return new Expression.Call(expression(e.callee), expressions(e.args), e.closingParenthesis);
+    }
+
+    @Override
+    public Expression visitGetExpression(Expression.Get e) {
+        return new Expression.Get(expression(e.object), e.name);
+    }
+
+    @Override
+    public Expression visitSetExpression(Expression.Set e) {
+        return new Expression.Set(expression(e.object), e.name, expression(e.value));
+    }
+
+    @Override
+    public Expression visitThisExpression(Expression.This e) {
+        return e;
+    }
+
+    @Override
+    public Expression visitSuperExpression(Expression.Super e) {
+        return e;
+    }
+
+    @Override
+    public Expression visitGetIndexExpression(Expression.GetIndex e) {
+        return new Expression.GetIndex(expression(e.object), e.bracket, expression(e.index));
+    }
+
+    @Override
+    public Expression visitSetIndexExpression(Expression.SetIndex e) {
+        return new Expression.SetIndex(expression(e.object), e.bracket, expression(e.index), expression(e.value));
+    }
+
+    @Override
+    public Expression visitHookExpression(Expression.Hook e) {
+        return e.expression.accept(this);
+    }
+}
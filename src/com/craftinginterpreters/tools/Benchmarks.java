@@ -0,0 +1,173 @@
+package com.craftinginterpreters.tools;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.craftinginterpreters.lox.LoxIsolate;
+
+// runs every .lox file in a directory (like bin/com/craftinginterpreters/benchmarks) in every
+// EngineMode and prints how long each one takes. With a baseline from an earlier --save it also
+// checks that nothing got slower, and exits with 1 if something did (or if a script failed):
+//
+//   benchmarks [--runs n] [--warmup n] [--modes a,b] [--baseline file] [--threshold 0.2] [--save file] <dir>
+//
+// Every run gets a fresh isolate but they all share the JVM, so the warmup runs are there to let
+// the JIT get going first. The time that counts is the fastest of the runs, since anything else the
+// machine does (or a GC left over from the last run) only ever makes a run slower. What the scripts
+// print is thrown away, errors still go to stderr.
+public class Benchmarks {
+    private static int runs = 5;
+    private static int warmup = 2;
+    private static Set<EngineMode> modes = EnumSet.allOf(EngineMode.class);
+    private static Path baselinePath = null;
+    private static Path savePath = null;
+
+    // how much slower than the baseline a run can be before it counts as a regression. Timings on
+    // a busy machine wander by 10% or so on their own
+    private static double threshold = 0.2;
+
+    private static final PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+
+    public static void main(String[] args) throws IOException {
+        Path directory = parseArgs(args);
+        if (directory == null) {
+            System.err.println("Usage: benchmarks [--runs n] [--warmup n] [--modes a,b] [--baseline file] " +
+                "[--threshold fraction] [--save file] <directory>");
+            System.exit(64);
+        }
+
+        List<Path> scripts = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.lox")) {
+            for (Path file : files) scripts.add(file);
+        }
+        Collections.sort(scripts);
+
+        Map<String, Double> baseline = baselinePath != null ? readBaseline(baselinePath) : Collections.emptyMap();
+        Map<String, Double> results = new LinkedHashMap<>();
+        List<String> problems = new ArrayList<>();
+
+        System.out.printf("%-22s %-16s %10s %10s %10s%n", "script", "mode", "best ms", "runs/s", "baseline");
+        for (Path script : scripts) {
+            String name = script.getFileName().toString();
+            for (EngineMode mode : modes) {
+                String key = name + " " + mode;
+                double millis = time(script, mode);
+                if (Double.isNaN(millis)) {
+                    problems.add(key + " failed");
+                    System.out.printf("%-22s %-16s %10s%n", name, mode, "failed");
+                    continue;
+                }
+                results.put(key, millis);
+
+                Double before = baseline.get(key);
+                String compared = "";
+                if (before != null) {
+                    double change = millis / before - 1;
+                    compared = String.format("%+.0f%%", change * 100);
+                    if (change > threshold) {
+                        problems.add(String.format("%s regressed: %.1f ms, baseline %.1f ms", key, millis, before));
+                        compared += " SLOWER";
+                    }
+                }
+                System.out.printf("%-22s %-16s %10.1f %10.2f %10s%n", name, mode, millis, 1000 / millis, compared);
+            }
+        }
+
+        if (savePath != null) writeBaseline(savePath, results);
+
+        if (!problems.isEmpty()) {
+            System.out.println();
+            for (String problem : problems) System.out.println(problem);
+            System.exit(1);
+        }
+    }
+
+    // the milliseconds of the fastest run, or NaN if the script didn't run cleanly
+    private static double time(Path script, EngineMode mode) throws IOException {
+        double best = Double.POSITIVE_INFINITY;
+        for (int k = -warmup; k < runs; k++) {
+            LoxIsolate isolate = mode.configure(new LoxIsolate.Builder().out(discard).err(System.err)).build();
+            // don't make this run pay for the garbage the last one left
+            System.gc();
+            long start = System.nanoTime();
+            int status = isolate.runFile(script);
+            long elapsed = System.nanoTime() - start;
+            if (status != LoxIsolate.OK) return Double.NaN;
+            if (k >= 0) best = Math.min(best, elapsed / 1e6);
+        }
+        return best;
+    }
+
+    // a baseline is one "script mode millis" per line, # starts a comment
+    private static Map<String, Double> readBaseline(Path path) throws IOException {
+        Map<String, Double> baseline = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] fields = line.split("\\s+");
+            baseline.put(fields[0] + " " + fields[1], Double.parseDouble(fields[2]));
+        }
+        return baseline;
+    }
+
+    private static void writeBaseline(Path path, Map<String, Double> results) throws IOException {
+        List<String> lines = new ArrayList<>();
+        lines.add("# milliseconds of the fastest run, written by tools.Benchmarks --save. Only compare");
+        lines.add("# against it on the machine (and JVM) that wrote it");
+        for (Map.Entry<String, Double> result : results.entrySet()) {
+            lines.add(result.getKey() + " " + String.format("%.1f", result.getValue()));
+        }
+        Files.write(path, lines, StandardCharsets.UTF_8);
+    }
+
+    // returns the directory, or null if the arguments don't make sense
+    private static Path parseArgs(String[] args) {
+        Path directory = null;
+        try {
+            for (int k = 0; k < args.length; k++) {
+                switch (args[k]) {
+                    case "--runs":
+                        runs = Integer.parseInt(args[++k]);
+                        break;
+                    case "--warmup":
+                        warmup = Integer.parseInt(args[++k]);
+                        break;
+                    case "--modes":
+                        modes = EnumSet.noneOf(EngineMode.class);
+                        for (String mode : args[++k].split(",")) modes.add(EngineMode.valueOf(mode.toUpperCase()));
+                        break;
+                    case "--baseline":
+                        baselinePath = Paths.get(args[++k]);
+                        break;
+                    case "--threshold":
+                        threshold = Double.parseDouble(args[++k]);
+                        break;
+                    case "--save":
+                        savePath = Paths.get(args[++k]);
+                        break;
+                    default:
+                        if (directory != null || args[k].startsWith("--")) return null;
+                        directory = Paths.get(args[k]);
+                }
+            }
+        }
+        catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            return null;
+        }
+        if (runs < 1 || warmup < 0) return null;
+        return directory;
+    }
+}
@@ -0,0 +1,201 @@
+package com.craftinginterpreters.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import com.craftinginterpreters.lox.LoxGenerator;
+import com.craftinginterpreters.lox.LoxIsolate;
+
+// runs the same scripts in every EngineMode and checks that they all print the same thing, report
+// the same errors and exit with the same status as the first mode does. The scripts are every .lox
+// file in a directory (like bin/com/craftinginterpreters/tests) plus some made up by LoxGenerator:
+//
+//   differential_test [--modes a,b] [--random n] [--seed s] [--ignore regex] <dir>
+//
+// Lines matching --ignore are left out of the comparison, by default lines ending in " seconds"
+// since scripts that time themselves never agree. Prints the first difference for every script that
+// didn't agree and how long each mode took in total, and exits with 1 if anything disagreed.
+public class DifferentialTest {
+    private static Set<EngineMode> modes = EnumSet.allOf(EngineMode.class);
+    private static int randomPrograms = 50;
+    private static long seed = 1;
+    private static Pattern ignore = Pattern.compile(".* seconds$");
+
+    // made up programs get a step limit so one that calls too much can't hold everything up.
+    // Running out of steps is an error like any other, every mode has to hit it at the same spot
+    private static final long RANDOM_MAX_STEPS = 5_000_000;
+
+    // what one run of a script did
+    private static class Outcome {
+        final int status;
+        final List<String> out;
+        final List<String> err;
+
+        Outcome(int status, List<String> out, List<String> err) {
+            this.status = status;
+            this.out = out;
+            this.err = err;
+        }
+    }
+
+    private static final Map<EngineMode, Long> nanos = new EnumMap<>(EngineMode.class);
+
+    public static void main(String[] args) throws IOException {
+        Path directory = parseArgs(args);
+        if (directory == null) {
+            System.err.println("Usage: differential_test [--modes a,b] [--random n] [--seed s] [--ignore regex] <directory>");
+            System.exit(64);
+        }
+
+        List<Path> scripts = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.lox")) {
+            for (Path file : files) scripts.add(file);
+        }
+        Collections.sort(scripts);
+
+        int disagreed = 0;
+        for (Path script : scripts) {
+            String source = new String(Files.readAllBytes(script), StandardCharsets.UTF_8);
+            // imports are relative to the script's own directory, like jlox
+            if (!compare(script.getFileName().toString(), source, script, 0)) disagreed++;
+        }
+        LoxGenerator generator = new LoxGenerator.Builder().build();
+        for (int k = 0; k < randomPrograms; k++) {
+            String source = generator.generate(seed + k);
+            if (!compare("random program, seed " + (seed + k), source, null, RANDOM_MAX_STEPS)) {
+                disagreed++;
+                System.out.println("---- the program was:");
+                System.out.print(source);
+                System.out.println("----");
+            }
+        }
+
+        int total = scripts.size() + randomPrograms;
+        System.out.println();
+        System.out.println((total - disagreed) + " of " + total + " scripts agreed in every mode");
+        for (Map.Entry<EngineMode, Long> time : nanos.entrySet()) {
+            System.out.printf("%-16s %10.1f ms%n", time.getKey(), time.getValue() / 1e6);
+        }
+        if (disagreed != 0) System.exit(1);
+    }
+
+    // runs source in every mode, returns whether they all did what the first one did.
+    // file is where the source came from, or null if it was made up
+    private static boolean compare(String name, String source, Path file, long maxSteps) throws IOException {
+        EngineMode reference = null;
+        Outcome expected = null;
+        for (EngineMode mode : modes) {
+            Outcome outcome = run(mode, source, file, maxSteps);
+            if (expected == null) {
+                reference = mode;
+                expected = outcome;
+                continue;
+            }
+            String difference = difference(expected, outcome);
+            if (difference != null) {
+                System.out.println(name + ": " + mode + " disagrees with " + reference + ", " + difference);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Outcome run(EngineMode mode, String source, Path file, long maxSteps) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        // the test scripts read files, like they can from jlox
+        LoxIsolate.Builder builder = mode.configure(new LoxIsolate.Builder()
+            .fileAccess(true)
+            .out(new PrintStream(out, true, "UTF-8"))
+            .err(new PrintStream(err, true, "UTF-8")));
+        // after configure, so BUDGETED doesn't get a bigger limit than the rest
+        if (maxSteps != 0) builder.maxSteps(maxSteps);
+        LoxIsolate isolate = builder.build();
+
+        long start = System.nanoTime();
+        int status = file != null ? isolate.runFile(file) : isolate.run(source);
+        nanos.merge(mode, System.nanoTime() - start, Long::sum);
+        isolate.close();
+
+        return new Outcome(status, lines(out), lines(err));
+    }
+
+    private static List<String> lines(ByteArrayOutputStream stream) {
+        List<String> lines = new ArrayList<>();
+        for (String line : new String(stream.toByteArray(), StandardCharsets.UTF_8).split("\n", -1)) {
+            if (!ignore.matcher(line).matches()) lines.add(line);
+        }
+        return lines;
+    }
+
+    // says what's different between two outcomes, or null if there's nothing
+    private static String difference(Outcome expected, Outcome actual) {
+        if (expected.status != actual.status) {
+            return "exit status " + actual.status + " instead of " + expected.status;
+        }
+        String out = difference(expected.out, actual.out);
+        if (out != null) return "output " + out;
+        String err = difference(expected.err, actual.err);
+        if (err != null) return "errors " + err;
+        return null;
+    }
+
+    private static String difference(List<String> expected, List<String> actual) {
+        int size = Math.min(expected.size(), actual.size());
+        for (int k = 0; k < size; k++) {
+            if (!expected.get(k).equals(actual.get(k))) {
+                return "line " + (k + 1) + ": \"" + actual.get(k) + "\" instead of \"" + expected.get(k) + "\"";
+            }
+        }
+        if (expected.size() != actual.size()) {
+            return "has " + actual.size() + " lines instead of " + expected.size();
+        }
+        return null;
+    }
+
+    // returns the directory, or null if the arguments don't make sense
+    private static Path parseArgs(String[] args) {
+        Path directory = null;
+        try {
+            for (int k = 0; k < args.length; k++) {
+                switch (args[k]) {
+                    case "--modes":
+                        modes = EnumSet.noneOf(EngineMode.class);
+                        for (String mode : args[++k].split(",")) modes.add(EngineMode.valueOf(mode.toUpperCase()));
+                        break;
+                    case "--random":
+                        randomPrograms = Integer.parseInt(args[++k]);
+                        break;
+                    case "--seed":
+                        seed = Long.parseLong(args[++k]);
+                        break;
+                    case "--ignore":
+                        ignore = Pattern.compile(args[++k]);
+                        break;
+                    default:
+                        if (directory != null || args[k].startsWith("--")) return null;
+                        directory = Paths.get(args[k]);
+                }
+            }
+        }
+        catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            return null;
+        }
+        if (randomPrograms < 0 || modes.isEmpty()) return null;
+        return directory;
+    }
+}
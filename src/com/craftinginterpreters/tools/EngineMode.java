@@ -0,0 +1,47 @@
+package com.craftinginterpreters.tools;
+
+import com.craftinginterpreters.lox.LoxIsolate;
+import com.craftinginterpreters.lox.ScriptCache;
+import com.craftinginterpreters.lox.TraceLog;
+
+// the different ways a LoxIsolate can be set up to run the same script. The benchmarks runner
+// times every script in each of them, since most of these change what the interpreter does per call or loop
+public enum EngineMode {
+    // what jlox runs with: fibers allowed, so globals and fields are thread safe
+    CONCURRENT,
+    // no fibers, plain hash maps for globals and fields
+    SINGLE_THREADED,
+    // a step limit and a deadline, so the budget gets checked (neither one is ever hit)
+    BUDGETED,
+    // compiled once through a ScriptCache and then only run
+    CACHED,
+    // sampling the Lox call stack, see LoxProfiler
+    PROFILED,
+    // counting and timing every line, see ExecutionCounters
+    INSTRUMENTED,
+    // recording every statement into a ring buffer, see TraceLog
+    TRACED;
+
+    // shared by every CACHED isolate, so only the first run of each script compiles it
+    private static final ScriptCache cache = new ScriptCache(1 << 24);
+
+    public LoxIsolate.Builder configure(LoxIsolate.Builder builder) {
+        switch (this) {
+            case SINGLE_THREADED:
+                return builder.concurrency(LoxIsolate.Concurrency.SINGLE_THREADED);
+            case BUDGETED:
+                return builder.maxSteps(Long.MAX_VALUE / 2).timeoutMillis(24L * 60 * 60 * 1000);
+            case CACHED:
+                return builder.cache(cache);
+            case PROFILED:
+                // a sample every millisecond, like jlox -Dlox.profile
+                return builder.profile(1000);
+            case INSTRUMENTED:
+                return builder.instrument(true);
+            case TRACED:
+                return builder.trace(TraceLog.DEFAULT_CAPACITY);
+            default:
+                return builder;
+        }
+    }
+}
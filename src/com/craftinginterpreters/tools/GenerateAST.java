@@ -17,34 +17,43 @@ public class GenerateAST {
         String outputDir = args[0];
 
         // an expression is a grouping of tokens and other expressions in a certain order
-        // typically field names and literal symbols are Token, and variables are expressions
+        // typically field names and literal symbols are Token, and variables are expressions.
+        // depth is how many scopes up the variable lives (-1 for a global), see Resolver.resolveLocal
         defineAST(outputDir, "Expression", Arrays.asList(
         "Binary : Expression left, Token operator, Expression right",
         "Grouping : Expression expression",
         "Literal : Object value",
         "Unary : Token operator, Expression right",
-        "Variable: Token name",
-        "Assignment: Token name, Expression value",
+        "Variable: Token name | int depth = -1",
+        "Assignment: Token name, Expression value | int depth = -1",
         "Logical: Expression left, Token operator, Expression right",
         "Call: Expression callee, List<Expression> args, Token closingParenthesis",
         "Get: Expression object, Token name",
         "Set: Expression object, Token name, Expression value",
-        "This: Token keyword",
-        "Super: Token keyword, Token method"
+        "This: Token keyword | int depth = -1",
+        "Super: Token keyword, Token method | int depth = -1",
+        "GetIndex: Expression object, Token bracket, Expression index",
+        "SetIndex: Expression object, Token bracket, Expression index, Expression value",
+        "Hook: Expression expression, Probe probe"
         ));
 
-        // a statement is a superset of expressions. You can have expressions inside of statements
+        // a statement is a superset of expressions. You can have expressions inside of statements.
+        // fields after a | aren't set by the parser, they get filled in later by the Resolver
+        // (so they aren't final and aren't constructor arguments).
+        // A Hook never comes out of the parser, TreeRewriter puts them into copies of a tree, see Probe
         defineAST(outputDir, "Statement", Arrays.asList(
             "ExpressionStatement : Expression expression",
             "PrintStatement : Expression expression",
             "VariableDeclaration : Token name, Expression initializer",
-            "BlockStatement: List<Statement> statements",
+            "BlockStatement: Token brace, List<Statement> statements",
             "IfStatement: Expression condition, Statement ifCode, Statement elseCode",
-            "WhileStatement: Expression condition, Statement code",
+            "WhileStatement: Token keyword, Expression condition, Statement code",
             "BreakStatement: ",
             "FunctionStatement: Token funcName, List<Token> args, List<Statement> code",
-            "ReturnStatement: Token returnKeyword, Expression exp",
-            "ClassDeclaration: Token nameOfClass, Expression.Variable superclass, List<FunctionStatement> methods"
+            "ReturnStatement: Token returnKeyword, Expression exp | boolean isTailCall",
+            "ClassDeclaration: Token nameOfClass, Expression.Variable superclass, List<FunctionStatement> methods",
+            "ImportStatement: Token keyword, Token path",
+            "Hook: Statement statement, Probe probe"
         ));
     }
 
@@ -79,6 +88,13 @@ public class GenerateAST {
             String[] splitted = s.split(":");
             String productionName = splitted[0].trim();
             String arguments = splitted[1].trim();
+
+            // split off the fields the Resolver fills in, if there are any
+            String[] resolvedFields = new String[0];
+            if (arguments.contains("|")) {
+                resolvedFields = arguments.substring(arguments.indexOf("|") + 1).trim().split(", ");
+                arguments = arguments.substring(0, arguments.indexOf("|")).trim();
+            }
             p.println("\tstatic class " + productionName + " extends " + baseName + " {");
 
             String[] splittedArgs;
@@ -93,6 +109,13 @@ public class GenerateAST {
             for (String field : splittedArgs) {
                 p.println("\t\tfinal " + field + ";");
             }
+            if (resolvedFields.length > 0) {
+                p.println();
+                p.println("\t\t// filled in by the Resolver");
+                for (String field : resolvedFields) {
+                    p.println("\t\t" + field + ";");
+                }
+            }
 
             // Visitor pattern. Example below (in Binary class):
             // here we make a generic method, the <R> passes along the type and 
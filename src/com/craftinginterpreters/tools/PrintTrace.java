@@ -0,0 +1,23 @@
+package com.craftinginterpreters.tools;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.craftinginterpreters.lox.TraceLog;
+
+// turns a trace written by jlox -Dlox.trace=<file> (or LoxIsolate.dumpTrace) back into text,
+// one line per statement with the oldest first
+public class PrintTrace {
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: print_trace <trace file>");
+            System.exit(64);
+        }
+
+        try (InputStream in = new BufferedInputStream(new FileInputStream(args[0]))) {
+            TraceLog.print(in, System.out);
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.craftinginterpreters.tools;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+import com.craftinginterpreters.lox.LoxGenerator;
+import com.craftinginterpreters.lox.LoxIsolate;
+import com.craftinginterpreters.lox.LoxMetrics;
+
+// makes LoxGenerator programs that keep doubling in one direction and times how long scanning,
+// parsing, resolving and running each one takes, to find anything that grows faster than the input:
+//
+//   stress_test [--shape s] [--start n] [--doublings d] [--runs r] [--seed s] [--max-ratio x]
+//
+// The shapes are statements, nesting, classes, calls, literals and expressions, and each one turns
+// up the LoxGenerator.Builder setting with the same name (calls is callChain, literals is
+// literalLength, expressions is expressionDepth), starting at --start. Every step is timed --runs
+// times and the best run counts. A phase is flagged when its time grew more than --max-ratio (1.5 by
+// default) times faster than the source did, so something quadratic doubles in time per byte every
+// step and shows up while linear stays near 1. Anything under 20 ms is left alone since the timer
+// is mostly noise down there. Running out of stack or memory, or a script that doesn't run cleanly,
+// is flagged too. Exits with 1 if anything was flagged.
+public class StressTest {
+    private static String shape = "statements";
+    private static int start = 64;
+    private static int doublings = 5;
+    private static int runs = 3;
+    private static long seed = 1;
+    private static double maxRatio = 1.5;
+
+    // how many problems were found
+    private static int flagged = 0;
+
+    // below this a phase is too quick to say anything about
+    private static final double MIN_MILLIS = 20;
+
+    // deep programs make deep recursion in the generator, AstPrinter, Parser, Resolver and Interpreter,
+    // so everything runs on a thread with a big stack to show where the time goes before they show
+    // where the stack runs out
+    private static final long STACK_BYTES = 1L << 30;
+
+    private static final String[] PHASES = {"scan", "parse", "resolve", "execute"};
+
+    // the times of one program, in PHASES order, or the reason it didn't run
+    private static class Timing {
+        final int bytes;
+        final double[] millis = new double[PHASES.length];
+        String failure;
+
+        Timing(int bytes) {
+            this.bytes = bytes;
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        if (!parseArgs(args)) {
+            System.err.println("Usage: stress_test [--shape statements|nesting|classes|calls|literals|expressions] " +
+                "[--start n] [--doublings d] [--runs r] [--seed s] [--max-ratio x]");
+            System.exit(64);
+        }
+
+        Thread thread = new Thread(null, StressTest::stress, "stress", STACK_BYTES);
+        thread.start();
+        thread.join();
+        if (flagged != 0) System.exit(1);
+    }
+
+    private static void stress() {
+        // one run to warm up the JIT, so the first step isn't the slowest
+        time(generate(start));
+
+        System.out.printf("%-10s %12s %10s %10s %10s %10s%n", shape, "bytes", "scan ms", "parse ms", "resolve ms", "execute ms");
+        Timing previous = null;
+        int size = start;
+        for (int step = 0; step <= doublings; step++, size *= 2) {
+            String source;
+            try {
+                source = generate(size);
+            }
+            catch (StackOverflowError e) {
+                System.out.println("  ! stack overflow making a program of size " + size);
+                flagged++;
+                break;
+            }
+            Timing timing = best(source);
+            System.out.printf("%-10d %12d %10.1f %10.1f %10.1f %10.1f%n", size, timing.bytes,
+                timing.millis[0], timing.millis[1], timing.millis[2], timing.millis[3]);
+            if (timing.failure != null) {
+                System.out.println("  ! " + timing.failure);
+                flagged++;
+                // bigger ones won't do any better
+                break;
+            }
+            if (previous != null) flagged += compare(previous, timing);
+            previous = timing;
+        }
+    }
+
+    private static String generate(int size) {
+        LoxGenerator.Builder builder = new LoxGenerator.Builder();
+        switch (shape) {
+            case "statements": builder.statements(size); break;
+            case "nesting": builder.nesting(size); break;
+            case "classes": builder.classes(size); break;
+            case "calls": builder.callChain(size); break;
+            case "literals": builder.literalLength(size); break;
+            default: builder.expressionDepth(size);
+        }
+        return builder.build().generate(seed);
+    }
+
+    // flags every phase that grew faster than the source, returns how many
+    private static int compare(Timing before, Timing after) {
+        int flagged = 0;
+        double grew = (double) after.bytes / before.bytes;
+        for (int k = 0; k < PHASES.length; k++) {
+            if (after.millis[k] < MIN_MILLIS) continue;
+            // a phase that took no measurable time before counts as MIN_MILLIS
+            double ratio = after.millis[k] / Math.max(before.millis[k], MIN_MILLIS) / grew;
+            if (ratio > maxRatio) {
+                System.out.printf("  ! %s took %.1fx longer per byte than at the last size%n", PHASES[k], ratio);
+                flagged++;
+            }
+        }
+        return flagged;
+    }
+
+    private static Timing best(String source) {
+        Timing best = null;
+        for (int k = 0; k < runs; k++) {
+            Timing timing = time(source);
+            if (timing.failure != null) return timing;
+            if (best == null) {
+                best = timing;
+                continue;
+            }
+            for (int phase = 0; phase < PHASES.length; phase++) {
+                best.millis[phase] = Math.min(best.millis[phase], timing.millis[phase]);
+            }
+        }
+        return best;
+    }
+
+    // runs source once and reads the phase times out of the engine metrics
+    private static Timing time(String source) {
+        Timing timing = new Timing(source.getBytes(StandardCharsets.UTF_8).length);
+        LoxIsolate isolate = new LoxIsolate.Builder()
+            .out(new PrintStream(OutputStream.nullOutputStream()))
+            .err(new PrintStream(OutputStream.nullOutputStream()))
+            .build();
+        System.gc();
+        LoxMetrics metrics = LoxMetrics.get();
+        metrics.resetMetrics();
+
+        try {
+            int status = isolate.run(source);
+            if (status != LoxIsolate.OK) timing.failure = "exited with status " + status;
+        }
+        catch (StackOverflowError e) {
+            timing.failure = "stack overflow";
+        }
+        catch (OutOfMemoryError e) {
+            timing.failure = "out of memory";
+        }
+        isolate.close();
+
+        timing.millis[0] = metrics.getScanMillis();
+        timing.millis[1] = metrics.getParseMillis();
+        timing.millis[2] = metrics.getResolveMillis();
+        timing.millis[3] = metrics.getExecutionMillisTotal();
+        return timing;
+    }
+
+    // returns false if the arguments don't make sense
+    private static boolean parseArgs(String[] args) {
+        try {
+            for (int k = 0; k < args.length; k++) {
+                switch (args[k]) {
+                    case "--shape":
+                        shape = args[++k];
+                        break;
+                    case "--start":
+                        start = Integer.parseInt(args[++k]);
+                        break;
+                    case "--doublings":
+                        doublings = Integer.parseInt(args[++k]);
+                        break;
+                    case "--runs":
+                        runs = Integer.parseInt(args[++k]);
+                        break;
+                    case "--seed":
+                        seed = Long.parseLong(args[++k]);
+                        break;
+                    case "--max-ratio":
+                        maxRatio = Double.parseDouble(args[++k]);
+                        break;
+                    default:
+                        return false;
+                }
+            }
+        }
+        catch (ArrayIndexOutOfBoundsException | IllegalArgumentException e) {
+            return false;
+        }
+        switch (shape) {
+            case "statements": case "nesting": case "classes": case "calls": case "literals": case "expressions":
+                break;
+            default:
+                return false;
+        }
+        return start > 0 && doublings >= 0 && runs > 0 && maxRatio > 0;
+    }
+}